@@ -17,9 +17,14 @@ else
 	exit 1
 fi
 
+# Vector API for the pixel loops, Java 16 or later
+if $_java --add-modules jdk.incubator.vector -version > /dev/null 2>&1; then
+    _vector="--add-modules jdk.incubator.vector"
+fi
+
 # Run the application
 cd $DIR
 echo $DIR
-$_java -jar ScreenStudio.jar
+$_java $_vector -jar ScreenStudio.jar
 
 
@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.blitter;
+
+import java.nio.ByteOrder;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The loops of Pixels with the Vector API.
+ *
+ * Each pixel goes in a 32 bit lane with its colors in the bytes of the lane:
+ * ABGR pixels as they are loaded, BGR pixels spread with one shuffle. The
+ * colors are then taken with shifts and masks like in the scalar loops.
+ * Blending opaque images works on the bytes, widened to 16 bits.
+ *
+ * The last pixels of a row, less than a vector, go through the scalar loops.
+ * The loops have no branches and as few operations as possible: past a
+ * certain size the JIT no longer compiles the vectors to registers and they
+ * end up slower than the scalar code.
+ *
+ * Needs Java 16 or later, compiled from src-vector with --add-modules
+ * jdk.incubator.vector.
+ *
+ * @author patrick
+ */
+public class VectorPixels extends Pixels {
+
+    // The widest vectors of the CPU, one pixel per lane
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, INTS.vectorShape());
+    private static final int N = INTS.length();
+    // One byte per pixel
+    private static final VectorSpecies<Byte> LUMA = VectorSpecies.of(byte.class, VectorShape.forBitSize(N * 8));
+    // Bytes widened to 16 bits
+    private static final VectorSpecies<Short> SHORTS = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> HALF = VectorSpecies.of(byte.class, VectorShape.forBitSize(SHORTS.vectorBitSize() / 2));
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // BGR bytes of N pixels to one pixel per lane and back, the BGR bytes
+    // fill only the first N * 3 lanes of a vector
+    private static final VectorShuffle<Byte> SPREAD;
+    private static final VectorShuffle<Byte> PACK;
+    private static final VectorMask<Byte> PACKED;
+    // The first and the second pixel of N / 2 pairs of BGR pixels, one pixel
+    // per lane in the first half of the vector, the other half is garbage
+    private static final VectorShuffle<Byte> FIRST;
+    private static final VectorShuffle<Byte> SECOND;
+
+    static {
+        int[] spread = new int[BYTES.length()];
+        int[] pack = new int[BYTES.length()];
+        boolean[] packed = new boolean[BYTES.length()];
+        for (int i = 0; i < spread.length; i++) {
+            spread[i] = (i / 4) * 3 + Math.min(2, i % 4);
+            packed[i] = i < N * 3;
+            pack[i] = packed[i] ? (i / 3) * 4 + i % 3 : i;
+        }
+        int[] first = new int[BYTES.length()];
+        int[] second = new int[BYTES.length()];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = ((i / 4) * 6 + Math.min(2, i % 4)) % first.length;
+            second[i] = ((i / 4) * 6 + 3 + Math.min(2, i % 4)) % first.length;
+        }
+        FIRST = VectorShuffle.fromArray(BYTES, first, 0);
+        SECOND = VectorShuffle.fromArray(BYTES, second, 0);
+        SPREAD = VectorShuffle.fromArray(BYTES, spread, 0);
+        PACK = VectorShuffle.fromArray(BYTES, pack, 0);
+        PACKED = VectorMask.fromArray(BYTES, packed, 0);
+    }
+
+    @Override
+    public String getName() {
+        return "Vector API, " + N + " pixels per step";
+    }
+
+    /**
+     * @return the N BGR pixels at the start of the vector, the top byte of
+     * the lanes is garbage
+     */
+    private static IntVector spread(ByteVector bgr) {
+        return bgr.rearrange(SPREAD).reinterpretAsInts();
+    }
+
+    /**
+     * @return the BGR bytes of the pixels in the first N * 3 lanes
+     */
+    private static ByteVector pack(IntVector pixels) {
+        return pixels.reinterpretAsBytes().rearrange(PACK);
+    }
+
+    private static IntVector color(IntVector pixels, int shift) {
+        return pixels.lanewise(VectorOperators.LSHR, shift).and(0xFF);
+    }
+
+    /**
+     * Rounded division by 255, from 0 to 255 * 255. Same as Blitter.div255
+     * with a multiplication instead of an addition and a shift.
+     */
+    private static IntVector div255(IntVector v) {
+        return v.add(128).mul(257).lanewise(VectorOperators.LSHR, 16);
+    }
+
+    private static ShortVector div255(ShortVector v) {
+        // Unsigned, 255 * 255 + 128 fits in 16 bits
+        v = v.add((short) 128);
+        return v.add(v.lanewise(VectorOperators.LSHR, 8)).lanewise(VectorOperators.LSHR, 8);
+    }
+
+    /**
+     * Rounded division by 255 of the two 16 bit halves of the lanes, each
+     * from 0 to 255 * 255
+     */
+    private static IntVector div255x2(IntVector v) {
+        v = v.add(0x00800080);
+        return v.add(v.lanewise(VectorOperators.LSHR, 8).and(0x00FF00FF)).lanewise(VectorOperators.LSHR, 8).and(0x00FF00FF);
+    }
+
+    /**
+     * @param shift of the blue byte in the lanes
+     */
+    private static IntVector gray(IntVector pixels, int shift) {
+        return color(pixels, shift + 16).mul(77)
+                .add(color(pixels, shift + 8).mul(151))
+                .add(color(pixels, shift).mul(28))
+                .lanewise(VectorOperators.LSHR, 8);
+    }
+
+    @Override
+    public void overBGR(byte[] src, int s, byte[] dst, int d, int length, int a) {
+        ShortVector alpha = ShortVector.broadcast(SHORTS, (short) a);
+        ShortVector inverse = ShortVector.broadcast(SHORTS, (short) (255 - a));
+        int n = HALF.length();
+        int i = 0;
+        for (; i <= length - n; i += n) {
+            ShortVector sv = ((ShortVector) ByteVector.fromArray(HALF, src, s + i).castShape(SHORTS, 0)).and((short) 0xFF);
+            ShortVector dv = ((ShortVector) ByteVector.fromArray(HALF, dst, d + i).castShape(SHORTS, 0)).and((short) 0xFF);
+            ((ByteVector) div255(sv.mul(alpha).add(dv.mul(inverse))).castShape(HALF, 0)).intoArray(dst, d + i);
+        }
+        super.overBGR(src, s + i, dst, d + i, length - i, a);
+    }
+
+    @Override
+    public void overABGR(byte[] src, int s, byte[] dst, int d, int pixels, int a) {
+        int x = 0;
+        // The destination is read a whole vector at a time, past the N
+        // pixels: stop at the end of the row
+        for (int end = d + pixels * 3; d + BYTES.length() <= end; x += N, s += N * 4, d += N * 3) {
+            IntVector sv = IntVector.fromByteArray(INTS, src, s, ORDER);
+            // Transparent pixels are blended too, a test and a branch cost
+            // more than they save
+            IntVector alpha = div255(sv.and(0xFF).mul(a));
+            IntVector inverse = alpha.lanewise(VectorOperators.XOR, 255);
+            ByteVector bytes = ByteVector.fromArray(BYTES, dst, d);
+            IntVector dv = spread(bytes);
+            // BGR like the destination
+            sv = sv.lanewise(VectorOperators.LSHR, 8);
+            // Blue and red side by side, then green
+            IntVector br = div255x2(sv.and(0x00FF00FF).mul(alpha).add(dv.and(0x00FF00FF).mul(inverse)));
+            IntVector g = div255(color(sv, 8).mul(alpha).add(color(dv, 8).mul(inverse)));
+            // The bytes after the N pixels are written back as they were
+            bytes.blend(pack(br.or(g.lanewise(VectorOperators.LSHL, 8))), PACKED).intoArray(dst, d);
+        }
+        super.overABGR(src, s, dst, d, pixels - x, a);
+    }
+
+    @Override
+    public void luma(byte[] bgr, int p, byte[] y, int o, int pixels, int yr, int yg, int yb) {
+        int x = 0;
+        for (; x <= pixels - N && p + BYTES.length() <= bgr.length; x += N, p += N * 3) {
+            IntVector v = spread(ByteVector.fromArray(BYTES, bgr, p));
+            IntVector l = color(v, 16).mul(yr)
+                    .add(color(v, 8).mul(yg))
+                    .add(color(v, 0).mul(yb))
+                    .add(128)
+                    .lanewise(VectorOperators.LSHR, 8)
+                    .add(16);
+            ((ByteVector) l.castShape(LUMA, 0)).intoArray(y, o + x);
+        }
+        super.luma(bgr, p, y, o + x, pixels - x, yr, yg, yb);
+    }
+
+    @Override
+    public void chroma(byte[] bgr, int p0, int p1, byte[] u, byte[] v, int o, int pairs, int ur, int ug, int ub, int vr, int vg, int vb) {
+        int n = N / 2;
+        int x = 0;
+        // The N / 2 bytes written after the pairs are overwritten by the next
+        // ones
+        for (; x <= pairs - N && p1 + BYTES.length() <= bgr.length; x += n, p0 += n * 6, p1 += n * 6) {
+            ByteVector r0 = ByteVector.fromArray(BYTES, bgr, p0);
+            ByteVector r1 = ByteVector.fromArray(BYTES, bgr, p1);
+            IntVector q0 = r0.rearrange(FIRST).reinterpretAsInts();
+            IntVector q1 = r0.rearrange(SECOND).reinterpretAsInts();
+            IntVector q2 = r1.rearrange(FIRST).reinterpretAsInts();
+            IntVector q3 = r1.rearrange(SECOND).reinterpretAsInts();
+            // Blue and red side by side in 16 bits each, then green
+            IntVector br = q0.and(0xFF00FF).add(q1.and(0xFF00FF)).add(q2.and(0xFF00FF)).add(q3.and(0xFF00FF));
+            IntVector sg = color(q0, 8).add(color(q1, 8)).add(color(q2, 8)).add(color(q3, 8));
+            IntVector sb = br.and(0xFFFF);
+            IntVector sr = br.lanewise(VectorOperators.LSHR, 16);
+            IntVector cu = sr.mul(ur).add(sg.mul(ug)).add(sb.mul(ub)).add(512).lanewise(VectorOperators.ASHR, 10).add(128);
+            IntVector cv = sr.mul(vr).add(sg.mul(vg)).add(sb.mul(vb)).add(512).lanewise(VectorOperators.ASHR, 10).add(128);
+            ((ByteVector) cu.castShape(LUMA, 0)).intoArray(u, o + x);
+            ((ByteVector) cv.castShape(LUMA, 0)).intoArray(v, o + x);
+        }
+        super.chroma(bgr, p0, p1, u, v, o + x, pairs - x, ur, ug, ub, vr, vg, vb);
+    }
+
+    @Override
+    public void blur(byte[] src, int up, int row, int down, byte[] dst, int out, int length, int bpp) {
+        int j = 0;
+        for (; j <= length - N; j += N) {
+            IntVector corners = bytes(src, up + j - bpp).add(bytes(src, up + j + bpp))
+                    .add(bytes(src, down + j - bpp)).add(bytes(src, down + j + bpp));
+            IntVector sides = bytes(src, up + j).add(bytes(src, down + j))
+                    .add(bytes(src, row + j - bpp)).add(bytes(src, row + j + bpp)).add(bytes(src, row + j));
+            IntVector b = corners.add(sides.lanewise(VectorOperators.LSHL, 1)).mul(4681).add(32768).lanewise(VectorOperators.LSHR, 16);
+            ((ByteVector) b.castShape(LUMA, 0)).intoArray(dst, out + j);
+        }
+        super.blur(src, up + j, row + j, down + j, dst, out + j, length - j, bpp);
+    }
+
+    /**
+     * @return N bytes, one per lane
+     */
+    private static IntVector bytes(byte[] src, int offset) {
+        return ((IntVector) ByteVector.fromArray(LUMA, src, offset).castShape(INTS, 0)).and(0xFF);
+    }
+
+    @Override
+    public void gray(byte[] src, byte[] dst, int offset, int pixels, int bpp) {
+        int x = 0;
+        int i = offset;
+        if (bpp == 4) {
+            for (; x <= pixels - N; x += N, i += N * 4) {
+                IntVector v = IntVector.fromByteArray(INTS, src, i, ORDER);
+                IntVector l = gray(v, 8);
+                v.and(0xFF).or(l.mul(0x01010100)).intoByteArray(dst, i, ORDER);
+            }
+        } else {
+            // A whole vector is read and written, past the N pixels: the
+            // bytes after them are copied as they are, overwritten by the
+            // next pixels of the row
+            for (int end = offset + pixels * 3; i + BYTES.length() <= end; x += N, i += N * 3) {
+                ByteVector bytes = ByteVector.fromArray(BYTES, src, i);
+                IntVector l = gray(spread(bytes), 0);
+                bytes.blend(pack(l.mul(0x010101)), PACKED).intoArray(dst, i);
+            }
+        }
+        super.gray(src, dst, i, pixels - x, bpp);
+    }
+}
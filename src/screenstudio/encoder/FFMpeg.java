@@ -28,6 +28,8 @@ import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import screenstudio.sources.Compositor;
+import screenstudio.sources.FramePool;
+import screenstudio.sources.MediaClock;
 import screenstudio.sources.Screen;
 import screenstudio.targets.Pipe;
 
@@ -87,6 +89,10 @@ public class FFMpeg implements Runnable {
     private boolean mStopMe = false;
     private boolean mDebugMode = false;
     private String mITSOffset = "";
+    private int mWriterQueue = 3;
+    private FrameWriter.Overflow mWriterOverflow = FrameWriter.Overflow.DropOldest;
+    private FrameWriter mWriter = null;
+    private Pipe.Transport mTransport = Pipe.Transport.TCP;
 
     private final String compositorFormat = "rawvideo -pix_fmt bgr24";
     private final Compositor compositor;
@@ -116,6 +122,33 @@ public class FFMpeg implements Runnable {
         compositor = c;
     }
 
+    /**
+     * Select how frames are sent to ffmpeg for the next run
+     *
+     * @param value
+     */
+    public void setTransport(Pipe.Transport value) {
+        mTransport = value;
+    }
+
+    public Pipe.Transport getTransport() {
+        return mTransport;
+    }
+
+    /**
+     * @return the number of frames waiting to be written to ffmpeg at most
+     */
+    public int getWriterQueue() {
+        return mWriterQueue;
+    }
+
+    /**
+     * @return the writer stage while encoding, to read its statistics
+     */
+    public FrameWriter getWriter() {
+        return mWriter;
+    }
+
     public File getHome() {
         return mHome;
     }
@@ -286,7 +319,7 @@ public class FFMpeg implements Runnable {
         return name;
     }
 
-    private String[] getCommands(String tcpServer) {
+    private String[] getCommands(String input) {
         ArrayList<String> c = new ArrayList<>();
         // Add binary path
         c.add(bin);
@@ -300,13 +333,20 @@ public class FFMpeg implements Runnable {
         c.add("-f");
         c.add("rawvideo");
         c.add("-pix_fmt");
-        c.add("bgr24");
+        c.add(compositor.getPixelFormat());
+        if (compositor.getColorMatrix() != null) {
+            // Already in the output format, ffmpeg only needs the tags...
+            c.add("-colorspace");
+            c.add(compositor.getColorMatrix().getColorSpace());
+            c.add("-color_range");
+            c.add("tv");
+        }
         c.add("-framerate");
         c.add("" + compositor.getFPS());
         c.add("-video_size");
         c.add(compositor.getWidth() + "x" + compositor.getHeight());
         c.add("-i");
-        c.add(tcpServer);
+        c.add(input);
 
         if (output.endsWith("timelaps.mov")) {
             c.add("-filter:v");
@@ -438,6 +478,14 @@ public class FFMpeg implements Runnable {
             //HOME
             mHome = new File(System.getProperty("user.home"));
             mThreading = p.getProperty("THREADING", mThreading);
+            //Writer queue
+            try {
+                mWriterQueue = Math.max(1, Integer.parseInt(p.getProperty("WRITERQUEUE", "" + mWriterQueue).trim()));
+            } catch (NumberFormatException ex) {
+                Logger.getLogger(FFMpeg.class.getName()).log(Level.WARNING, "Invalid WRITERQUEUE, using {0}", mWriterQueue);
+            }
+            mWriterOverflow = FrameWriter.Overflow.valueOf(p.getProperty("WRITEROVERFLOW", mWriterOverflow.name()).trim());
+            mTransport = Pipe.Transport.valueOf(p.getProperty("TRANSPORT", mTransport.name()).trim());
             in.close();
 
         } catch (MalformedURLException ex) {
@@ -466,7 +514,12 @@ public class FFMpeg implements Runnable {
                     Logger.getLogger(FFMpeg.class.getName()).log(Level.SEVERE, null, ex);
                 }
             }
-            Pipe pipe = new Pipe();
+            Pipe.Transport transport = mTransport;
+            if (!Pipe.isSupported(transport)) {
+                System.out.println("Transport " + transport + " is not supported, using TCP");
+                transport = Pipe.Transport.TCP;
+            }
+            Pipe pipe = new Pipe(transport);
             new Thread(pipe).start(); //Start listening...
             String[] commands = getCommands(pipe.getServer());
             String fullCommand = "";
@@ -480,11 +533,19 @@ public class FFMpeg implements Runnable {
             } else { // Works best for Linux when spaces are in the command
                 p = Runtime.getRuntime().exec(commands);
             }
+            pipe.attach(p);
             OutputStream out = p.getOutputStream();
             InputStream in = p.getErrorStream();
             new Thread(new ProcessReader(in)).start();
-            long frameTime = (1000000000 / compositor.getFPS());
-            long nextPTS = System.nanoTime() + frameTime;
+            // One frame per tick of the compositor clock, half a frame after
+            // the tick so that the compositor had time to publish it
+            MediaClock clock = compositor.getClock();
+            long frameTime = clock.getTime(1);
+            long tick = clock.getTick() + 1;
+            long lastPTS = -1;
+            mWriter = new FrameWriter(pipe, mWriterQueue, mWriterOverflow);
+            Thread writerThread = new Thread(mWriter);
+            writerThread.start();
             state = RunningState.Running;
             System.out.println("Starting encoding...");
             long mStopDelay = 0;
@@ -494,30 +555,45 @@ public class FFMpeg implements Runnable {
                     compositor.RequestStop();
                     mStopMe = false;  // disable one acknowledged
                 }
-                try {
-                    pipe.write(compositor.getData());
-                } catch (Exception exWrite) {
-                    System.err.println("Exception while writing...  " + exWrite.getMessage());
-                    this.lastErrorMessage = exWrite.getMessage();
-                    state = RunningState.Error;
-                    mStopDelay = System.currentTimeMillis();
-                    mStopMe = true;
+                if (clock.waitFor(tick, frameTime / 2) > frameTime) {
+                    clock.addLateFrames(1);
                 }
-                long wait = nextPTS - System.nanoTime();
-                nextPTS += frameTime;
-                if (wait > 0) {
+                tick++;
+                FramePool.Frame frame = compositor.getData();
+                if (frame != null) {
+                    if (frame.getPTS() == lastPTS) {
+                        clock.addDuplicatedFrame();
+                    }
+                    lastPTS = frame.getPTS();
                     try {
-                        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
-                    } catch (Exception ex) {
-                        System.err.println("Error: Thread.sleep(" + (wait / 1000000) + "," + ((int) (wait % 1000000)) + ")");
+                        // The writer releases the frame once written...
+                        mWriter.write(frame);
+                    } catch (Exception exWrite) {
+                        System.err.println("Exception while writing...  " + exWrite.getMessage());
+                        this.lastErrorMessage = exWrite.getMessage();
+                        state = RunningState.Error;
+                        mStopDelay = System.currentTimeMillis();
+                        mStopMe = true;
                     }
                 }
             }
             System.out.println("Exiting encoder...");
+            mWriter.flush(mDefaultStopDelay);
+            mWriter.close();
+            try {
+                writerThread.join(mDefaultStopDelay);
+            } catch (InterruptedException ex) {
+                Logger.getLogger(FFMpeg.class.getName()).log(Level.SEVERE, null, ex);
+            }
+            System.out.println("Late frames : " + clock.getLateFrames() + ", duplicated frames : " + clock.getDuplicatedFrames());
+            System.out.println("Dropped frames : " + mWriter.getDroppedFrames() + ", write latency : " + String.format("%.1f", mWriter.getAverageLatency()) + " ms (max " + String.format("%.1f", mWriter.getMaxLatency()) + " ms)");
             System.out.println("Status : " + state.toString());
             in.close();
             pipe.close();
-            out.write("q\n".getBytes());
+            if (transport != Pipe.Transport.Stdin) {
+                // With stdin, closing the pipe already ended the input...
+                out.write("q\n".getBytes());
+            }
             try {
                 out.close();
             } catch (Exception ex) {
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.encoder;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import screenstudio.sources.FramePool;
+import screenstudio.targets.Pipe;
+
+/**
+ * Writes frames to the pipe on its own thread so that a slow moment of ffmpeg
+ * does not block the loop that paces the frames.
+ *
+ * The queue is a fixed ring of frame references. The frames are retained by
+ * the caller before being queued and released once written or dropped.
+ *
+ * @author patrick
+ */
+public class FrameWriter implements Runnable {
+
+    public enum Overflow {
+        DropOldest,
+        DropNewest,
+        Block,
+    }
+
+    private final Pipe mPipe;
+    private final Overflow mOverflow;
+    private final FramePool.Frame[] mQueue;
+    private final long[] mQueuedAt;
+    private int mHead = 0;
+    private int mCount = 0;
+    private boolean mStop = false;
+    private final ReentrantLock mLock = new ReentrantLock();
+    private final Condition mNotEmpty = mLock.newCondition();
+    private final Condition mNotFull = mLock.newCondition();
+
+    private long mWritten = 0;
+    private long mDropped = 0;
+    private long mLatencyTotal = 0;
+    private long mLatencyMax = 0;
+    private IOException mError = null;
+
+    /**
+     * @param pipe
+     * @param capacity maximum number of frames waiting to be written
+     * @param overflow what to do with a new frame when the queue is full
+     */
+    public FrameWriter(Pipe pipe, int capacity, Overflow overflow) {
+        mPipe = pipe;
+        mOverflow = overflow;
+        mQueue = new FramePool.Frame[Math.max(1, capacity)];
+        mQueuedAt = new long[mQueue.length];
+    }
+
+    /**
+     * Queue a retained frame. The writer takes ownership of the reference and
+     * releases it when the frame is written or dropped.
+     *
+     * @param frame
+     * @return false if the frame was dropped
+     * @throws IOException if writing to the pipe already failed
+     */
+    public boolean write(FramePool.Frame frame) throws IOException {
+        FramePool.Frame dropped = null;
+        boolean queued = true;
+        mLock.lock();
+        try {
+            if (mError != null) {
+                frame.release();
+                throw mError;
+            }
+            if (mStop) {
+                dropped = frame;
+                queued = false;
+                mDropped++;
+            } else if (mCount == mQueue.length) {
+                switch (mOverflow) {
+                    case DropOldest:
+                        dropped = mQueue[mHead];
+                        mQueue[mHead] = null;
+                        mHead = (mHead + 1) % mQueue.length;
+                        mCount--;
+                        mDropped++;
+                        break;
+                    case DropNewest:
+                        dropped = frame;
+                        queued = false;
+                        mDropped++;
+                        break;
+                    case Block:
+                        while (mCount == mQueue.length && !mStop) {
+                            mNotFull.awaitUninterruptibly();
+                        }
+                        if (mStop) {
+                            dropped = frame;
+                            queued = false;
+                            mDropped++;
+                        }
+                        break;
+                }
+            }
+            if (queued) {
+                int tail = (mHead + mCount) % mQueue.length;
+                mQueue[tail] = frame;
+                mQueuedAt[tail] = System.nanoTime();
+                mCount++;
+                mNotEmpty.signal();
+            }
+        } finally {
+            mLock.unlock();
+        }
+        if (dropped != null) {
+            dropped.release();
+        }
+        return queued;
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            FramePool.Frame frame;
+            long queuedAt;
+            mLock.lock();
+            try {
+                while (mCount == 0 && !mStop) {
+                    mNotEmpty.awaitUninterruptibly();
+                }
+                if (mCount == 0 || mError != null) {
+                    break;
+                }
+                frame = mQueue[mHead];
+                queuedAt = mQueuedAt[mHead];
+                mQueue[mHead] = null;
+                mHead = (mHead + 1) % mQueue.length;
+                mCount--;
+                mNotFull.signalAll();
+            } finally {
+                mLock.unlock();
+            }
+            try {
+                if (frame.hasBuffer()) {
+                    mPipe.write(frame.getSlices());
+                } else {
+                    mPipe.write(frame.getData());
+                }
+                long latency = System.nanoTime() - queuedAt;
+                mLock.lock();
+                try {
+                    mWritten++;
+                    mLatencyTotal += latency;
+                    mLatencyMax = Math.max(mLatencyMax, latency);
+                } finally {
+                    mLock.unlock();
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(FrameWriter.class.getName()).log(Level.SEVERE, null, ex);
+                mLock.lock();
+                try {
+                    mError = ex;
+                    mStop = true;
+                } finally {
+                    mLock.unlock();
+                }
+            } finally {
+                frame.release();
+            }
+        }
+        clear();
+    }
+
+    /**
+     * Stop once the queued frames are written
+     */
+    public void close() {
+        mLock.lock();
+        try {
+            mStop = true;
+            mNotEmpty.signalAll();
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the queued frames to be written
+     *
+     * @param timeout in milliseconds
+     * @return true if the queue is empty
+     */
+    public boolean flush(long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        mLock.lock();
+        try {
+            while (mCount > 0 && mError == null) {
+                long wait = deadline - System.nanoTime();
+                if (wait <= 0) {
+                    return false;
+                }
+                mNotFull.awaitNanos(wait);
+            }
+            return mCount == 0;
+        } catch (InterruptedException ex) {
+            return false;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private void clear() {
+        mLock.lock();
+        try {
+            while (mCount > 0) {
+                mQueue[mHead].release();
+                mQueue[mHead] = null;
+                mHead = (mHead + 1) % mQueue.length;
+                mCount--;
+                mDropped++;
+            }
+            mNotFull.signalAll();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public Overflow getOverflow() {
+        return mOverflow;
+    }
+
+    public int getCapacity() {
+        return mQueue.length;
+    }
+
+    /**
+     * @return the number of frames waiting to be written
+     */
+    public int getQueueDepth() {
+        mLock.lock();
+        try {
+            return mCount;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getWrittenFrames() {
+        mLock.lock();
+        try {
+            return mWritten;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    public long getDroppedFrames() {
+        mLock.lock();
+        try {
+            return mDropped;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the average time between queuing and writing a frame in
+     * milliseconds
+     */
+    public double getAverageLatency() {
+        mLock.lock();
+        try {
+            return mWritten == 0 ? 0 : mLatencyTotal / (double) mWritten / 1000000D;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the longest time between queuing and writing a frame in
+     * milliseconds
+     */
+    public double getMaxLatency() {
+        mLock.lock();
+        try {
+            return mLatencyMax / 1000000D;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * @return the error that stopped the writer or null
+     */
+    public IOException getError() {
+        mLock.lock();
+        try {
+            return mError;
+        } finally {
+            mLock.unlock();
+        }
+    }
+}
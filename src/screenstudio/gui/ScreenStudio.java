@@ -67,13 +67,19 @@ import screenstudio.gui.images.frames.Frames;
 import screenstudio.panel.editor.TextEditor;
 import screenstudio.remote.HTTPServer;
 import screenstudio.sources.Compositor;
+import screenstudio.sources.FramePool;
 import screenstudio.sources.Microphone;
 import screenstudio.sources.Screen;
 import screenstudio.sources.SlideShow;
 import screenstudio.sources.Source;
+import screenstudio.sources.SourcePool;
+import screenstudio.sources.SourceX11;
 import screenstudio.sources.SystemCheck;
 import screenstudio.sources.Webcam;
+import screenstudio.sources.blitter.Pixels;
+import screenstudio.sources.blitter.YUV420;
 import screenstudio.sources.effects.Effect;
+import screenstudio.sources.effects.EffectChain;
 import screenstudio.sources.transitions.Transition;
 import screenstudio.targets.Layout;
 import screenstudio.targets.Layout.SourceType;
@@ -448,6 +454,10 @@ public class ScreenStudio extends javax.swing.JFrame {
             tableSources.getColumnModel().getColumn(12).setHeaderValue(LANGUAGES.getString("EFFECT")); // NOI18N
             ComboBoxCellEditor edef = new ComboBoxCellEditor(new JComboBox(Effect.eEffects.values()));
             tableSources.getColumnModel().getColumn(12).setCellEditor(edef);
+            //Capture frame rate, 0 for the output frame rate
+            tableSources.getColumnModel().getColumn(13).setResizable(false);
+            tableSources.getColumnModel().getColumn(13).setPreferredWidth(75);
+            tableSources.getColumnModel().getColumn(13).setHeaderValue(LANGUAGES.getString("CAPTURE_FPS")); // NOI18N
 
         }
 
@@ -515,6 +525,7 @@ public class ScreenStudio extends javax.swing.JFrame {
                         for (Screen screen : screens) {
                             if (screen.getLabel().equals(s.getID())) {
                                 s.setSourceObject(screen);
+                                screen.setFollowingMouse(s.isFollowMouse() && Screen.isFollowMouseSupported());
                                 if (s.getCaptureX() != 0 || s.getCaptureY() != 0) {
                                     screen.getSize().width = s.getViews().get(s.getCurrentViewIndex()).Width;
                                     screen.getSize().height = s.getViews().get(s.getCurrentViewIndex()).Height;
@@ -552,6 +563,12 @@ public class ScreenStudio extends javax.swing.JFrame {
                     case Frame:
                         s.setSourceObject(Frames.eList.valueOf(s.getID()));
                         break;
+                    case Video:
+                        s.setSourceObject(new File(s.getID()));
+                        break;
+                    case Stream:
+                        s.setSourceObject(s.getID());
+                        break;
                     case Custom:
                         s.setSourceObject(s.getID());
                         break;
@@ -594,6 +611,7 @@ public class ScreenStudio extends javax.swing.JFrame {
                 s.setID(((File) s.getSourceObject()).getAbsolutePath());
             } else if (s.getSourceObject() instanceof Screen) {
                 s.setID(((Screen) s.getSourceObject()).getLabel());
+                s.setFollowMouse(((Screen) s.getSourceObject()).isFollowingMouse());
             } else if (s.getSourceObject() instanceof Frames.eList) {
                 s.setID(((Frames.eList) s.getSourceObject()).name());
             } else if (s.getSourceObject() instanceof Webcam) {
@@ -718,41 +736,68 @@ public class ScreenStudio extends javax.swing.JFrame {
                 menu.setActionCommand(s.getLabel());
                 menu.setToolTipText(LANGUAGES.getString("SIZE") + ": " + s.getDetailledLabel());
                 menu.addActionListener((ActionEvent e) -> {
-                    try {
-                        for (Screen screen : Screen.getSources()) {
-                            if (screen.getLabel().equals(e.getActionCommand())) {
-                                screenstudio.targets.Source source = new screenstudio.targets.Source(cboSourceViews.getItemCount());
-                                source.setCurrentViewIndex(cboSourceViews.getSelectedIndex());;
-                                source.Views.get(source.CurrentViewIndex).remoteDisplay = true;
-                                source.setType(SourceType.Desktop);
-                                source.setSourceObject(screen);
-                                source.Views.get(source.CurrentViewIndex).X = 0;
-                                source.Views.get(source.CurrentViewIndex).Y = 0;
-                                source.Views.get(source.CurrentViewIndex).Width = (int) spinWidth.getValue();
-                                source.Views.get(source.CurrentViewIndex).Height = (int) spinHeight.getValue();
-                                source.Views.get(source.CurrentViewIndex).Alpha = 1f;
-                                source.Views.get(source.CurrentViewIndex).Order = mSources.size();
-                                source.setStartTime(0L);
-                                source.setEndTime(0L);
-                                source.setTransitionStart(Transition.NAMES.None);
-                                source.setTransitionStop(Transition.NAMES.None);
-                                source.setEffect(Effect.eEffects.None);
-                                source.initOtherViews();
-                                bindingGroup.getBinding("MySource").unbind();
-                                mSources.add(source);
-                                bindingGroup.getBinding("MySource").bind();
-                                updateColumnsLayout();
-                                updateRemoteSources();
-                                break;
-                            }
-
-                        }
-                    } catch (IOException | InterruptedException ex) {
-                        Logger.getLogger(ScreenStudio.class.getName()).log(Level.SEVERE, null, ex);
-                    }
+                    addDesktop(e.getActionCommand(), false);
                 });
-
                 mnuMainDestops.add(menu);
+                if (Screen.isFollowMouseSupported()) {
+                    JMenuItem follow = new JMenuItem(s.getLabel() + " (" + LANGUAGES.getString("FOLLOW_MOUSE") + ")");
+                    follow.setActionCommand(s.getLabel());
+                    follow.setToolTipText(LANGUAGES.getString("SIZE") + ": " + spinWidth.getValue() + "X" + spinHeight.getValue());
+                    follow.addActionListener((ActionEvent e) -> {
+                        addDesktop(e.getActionCommand(), true);
+                    });
+                    mnuMainDestops.add(follow);
+                }
+            }
+        } catch (IOException | InterruptedException ex) {
+            Logger.getLogger(ScreenStudio.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void editEffectChain(screenstudio.targets.Source source) {
+        Object value = javax.swing.JOptionPane.showInputDialog(this, LANGUAGES.getString("EFFECT_CHAIN"), source.getSourceObject().toString(), javax.swing.JOptionPane.PLAIN_MESSAGE, null, null, source.getEffectChain().toString());
+        if (value != null) {
+            try {
+                source.setEffectChain(EffectChain.parse(value.toString()));
+            } catch (IllegalArgumentException ex) {
+                Logger.getLogger(ScreenStudio.class.getName()).log(Level.WARNING, "Invalid effects " + value + ", ignored", ex);
+                source.setEffectChain(EffectChain.NONE);
+                javax.swing.JOptionPane.showMessageDialog(this, ex.getMessage(), LANGUAGES.getString("EFFECT_CHAIN"), javax.swing.JOptionPane.ERROR_MESSAGE);
+            }
+        }
+    }
+
+    private void addDesktop(String label, boolean followMouse) {
+        try {
+            for (Screen screen : Screen.getSources()) {
+                if (screen.getLabel().equals(label)) {
+                    screen.setFollowingMouse(followMouse);
+                    screenstudio.targets.Source source = new screenstudio.targets.Source(cboSourceViews.getItemCount());
+                    source.setCurrentViewIndex(cboSourceViews.getSelectedIndex());;
+                    source.Views.get(source.CurrentViewIndex).remoteDisplay = true;
+                    source.setType(SourceType.Desktop);
+                    source.setSourceObject(screen);
+                    source.setFollowMouse(followMouse);
+                    source.Views.get(source.CurrentViewIndex).X = 0;
+                    source.Views.get(source.CurrentViewIndex).Y = 0;
+                    source.Views.get(source.CurrentViewIndex).Width = (int) spinWidth.getValue();
+                    source.Views.get(source.CurrentViewIndex).Height = (int) spinHeight.getValue();
+                    source.Views.get(source.CurrentViewIndex).Alpha = 1f;
+                    source.Views.get(source.CurrentViewIndex).Order = mSources.size();
+                    source.setStartTime(0L);
+                    source.setEndTime(0L);
+                    source.setTransitionStart(Transition.NAMES.None);
+                    source.setTransitionStop(Transition.NAMES.None);
+                    source.setEffect(Effect.eEffects.None);
+                    source.initOtherViews();
+                    bindingGroup.getBinding("MySource").unbind();
+                    mSources.add(source);
+                    bindingGroup.getBinding("MySource").bind();
+                    updateColumnsLayout();
+                    updateRemoteSources();
+                    break;
+                }
+
             }
         } catch (IOException | InterruptedException ex) {
             Logger.getLogger(ScreenStudio.class.getName()).log(Level.SEVERE, null, ex);
@@ -850,6 +895,8 @@ public class ScreenStudio extends javax.swing.JFrame {
         mnuMainWebcams = new javax.swing.JMenu();
         mnuMainDestops = new javax.swing.JMenu();
         mnuMainAddImage = new javax.swing.JMenuItem();
+        mnuMainAddVideo = new javax.swing.JMenuItem();
+        mnuMainAddStream = new javax.swing.JMenuItem();
         mnuMainAddLabel = new javax.swing.JMenuItem();
         mnuMainAddCustom = new javax.swing.JMenuItem();
         mnuMainFrames = new javax.swing.JMenu();
@@ -1267,6 +1314,9 @@ public class ScreenStudio extends javax.swing.JFrame {
         columnBinding = jTableBinding.addColumnBinding(org.jdesktop.beansbinding.ELProperty.create("${effect}"));
         columnBinding.setColumnName("Effect");
         columnBinding.setColumnClass(Effect.eEffects.class);
+        columnBinding = jTableBinding.addColumnBinding(org.jdesktop.beansbinding.ELProperty.create("${captureFPS}"));
+        columnBinding.setColumnName("Capture FPS");
+        columnBinding.setColumnClass(Integer.class);
         bindingGroup.addBinding(jTableBinding);
         jTableBinding.bind();
         tableSources.addMouseListener(new java.awt.event.MouseAdapter() {
@@ -1316,6 +1366,9 @@ public class ScreenStudio extends javax.swing.JFrame {
             tableSources.getColumnModel().getColumn(12).setResizable(false);
             tableSources.getColumnModel().getColumn(12).setPreferredWidth(100);
             tableSources.getColumnModel().getColumn(12).setHeaderValue(bundle.getString("EFFECT")); // NOI18N
+            tableSources.getColumnModel().getColumn(13).setResizable(false);
+            tableSources.getColumnModel().getColumn(13).setPreferredWidth(75);
+            tableSources.getColumnModel().getColumn(13).setHeaderValue(bundle.getString("CAPTURE_FPS")); // NOI18N
         }
 
         splitterSources.setLeftComponent(scrollSources);
@@ -1732,6 +1785,30 @@ public class ScreenStudio extends javax.swing.JFrame {
         });
         mnuEdit.add(mnuMainAddImage);
 
+        mnuMainAddVideo.setBackground(new java.awt.Color(0, 0, 0));
+        mnuMainAddVideo.setFont(new java.awt.Font("Dialog", 0, 12)); // NOI18N
+        mnuMainAddVideo.setForeground(new java.awt.Color(238, 238, 238));
+        mnuMainAddVideo.setText(bundle.getString("MENU_ADD_VIDEO")); // NOI18N
+        mnuMainAddVideo.setToolTipText("Browse your hard disk to add a source video file");
+        mnuMainAddVideo.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                mnuMainAddVideoActionPerformed(evt);
+            }
+        });
+        mnuEdit.add(mnuMainAddVideo);
+
+        mnuMainAddStream.setBackground(new java.awt.Color(0, 0, 0));
+        mnuMainAddStream.setFont(new java.awt.Font("Dialog", 0, 12)); // NOI18N
+        mnuMainAddStream.setForeground(new java.awt.Color(238, 238, 238));
+        mnuMainAddStream.setText(bundle.getString("MENU_ADD_STREAM")); // NOI18N
+        mnuMainAddStream.setToolTipText("Add a remote stream (rtmp, srt, http...)");
+        mnuMainAddStream.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                mnuMainAddStreamActionPerformed(evt);
+            }
+        });
+        mnuEdit.add(mnuMainAddStream);
+
         mnuMainAddLabel.setBackground(new java.awt.Color(0, 0, 0));
         mnuMainAddLabel.setFont(new java.awt.Font("Dialog", 0, 12)); // NOI18N
         mnuMainAddLabel.setForeground(new java.awt.Color(238, 238, 238));
@@ -1825,7 +1902,12 @@ public class ScreenStudio extends javax.swing.JFrame {
     }//GEN-LAST:event_tableSourcesKeyPressed
 
     private void tableSourcesMouseClicked(java.awt.event.MouseEvent evt) {//GEN-FIRST:event_tableSourcesMouseClicked
-        if (evt.getClickCount() == 2) {
+        if (javax.swing.SwingUtilities.isRightMouseButton(evt)) {
+            int rowIndex = tableSources.rowAtPoint(evt.getPoint());
+            if (rowIndex >= 0) {
+                editEffectChain(mSources.get(rowIndex));
+            }
+        } else if (evt.getClickCount() == 2) {
             int rowIndex = tableSources.getSelectedRow();
             screenstudio.targets.Source source = mSources.get(rowIndex);
             if (source.Type == SourceType.LabelText) {
@@ -1853,6 +1935,42 @@ public class ScreenStudio extends javax.swing.JFrame {
                         break;
                 }
                 tableSources.repaint();
+            } else if (source.Type == SourceType.Webcam) {
+                Webcam webcam = (Webcam) source.getSourceObject();
+                javax.swing.JCheckBox green = new javax.swing.JCheckBox(LANGUAGES.getString("GREEN_SCREEN"), source.isGreenScreen());
+                javax.swing.JSpinner sensitivity = new javax.swing.JSpinner(new javax.swing.SpinnerNumberModel(source.getGreenSensitivity(), 1, 10, 1));
+                JPanel panel = new JPanel(new java.awt.GridLayout(0, 1));
+                panel.add(green);
+                panel.add(new javax.swing.JLabel(LANGUAGES.getString("GREEN_SENSITIVITY")));
+                panel.add(sensitivity);
+                if (javax.swing.JOptionPane.showConfirmDialog(this, panel, webcam.toString(), javax.swing.JOptionPane.OK_CANCEL_OPTION) == javax.swing.JOptionPane.OK_OPTION) {
+                    source.setGreenScreen(green.isSelected());
+                    source.setGreenSensitivity((Integer) sensitivity.getValue());
+                }
+            } else if (source.Type == SourceType.Video) {
+                javax.swing.JCheckBox loop = new javax.swing.JCheckBox(LANGUAGES.getString("VIDEO_LOOP"), source.isLoop());
+                javax.swing.JSpinner offset = new javax.swing.JSpinner(new javax.swing.SpinnerNumberModel(source.getOffset() / 1000D, 0D, 86400D, 0.5D));
+                JPanel panel = new JPanel(new java.awt.GridLayout(0, 1));
+                panel.add(loop);
+                panel.add(new javax.swing.JLabel(LANGUAGES.getString("VIDEO_OFFSET")));
+                panel.add(offset);
+                if (javax.swing.JOptionPane.showConfirmDialog(this, panel, source.getSourceObject().toString(), javax.swing.JOptionPane.OK_CANCEL_OPTION) == javax.swing.JOptionPane.OK_OPTION) {
+                    source.setLoop(loop.isSelected());
+                    source.setOffset(Math.round(((Number) offset.getValue()).doubleValue() * 1000));
+                }
+            } else if (source.Type == SourceType.Stream) {
+                javax.swing.JTextField url = new javax.swing.JTextField(source.getSourceObject().toString());
+                javax.swing.JSpinner buffer = new javax.swing.JSpinner(new javax.swing.SpinnerNumberModel(source.getBuffer(), 0L, 10000L, 100L));
+                JPanel panel = new JPanel(new java.awt.GridLayout(0, 1));
+                panel.add(new javax.swing.JLabel(LANGUAGES.getString("STREAM_URL")));
+                panel.add(url);
+                panel.add(new javax.swing.JLabel(LANGUAGES.getString("STREAM_BUFFER")));
+                panel.add(buffer);
+                if (javax.swing.JOptionPane.showConfirmDialog(this, panel, LANGUAGES.getString("MENU_ADD_STREAM"), javax.swing.JOptionPane.OK_CANCEL_OPTION) == javax.swing.JOptionPane.OK_OPTION) {
+                    tableSources.setValueAt(url.getText().trim(), rowIndex, 2);
+                    source.setBuffer(((Number) buffer.getValue()).longValue());
+                }
+                tableSources.repaint();
             } else if (source.Type == SourceType.Custom) {
                 String s = (String) tableSources.getValueAt(rowIndex, 2);
                 DlgCustomSource d = new DlgCustomSource(s, this, true);
@@ -1989,8 +2107,25 @@ public class ScreenStudio extends javax.swing.JFrame {
                 abort = true;
             }
             if (!abort) {
+                java.util.prefs.Preferences p = java.util.prefs.Preferences.userRoot().node("screenstudio");
+                // Keep the capture processes running between recordings...
+                SourcePool.getDefault().setIdleTTL(p.getLong("SOURCEPOOLTTL", 0));
+                SourceX11.setEnabled(p.getBoolean("X11SHM", true));
+                SourceX11.setDamage(p.getBoolean("X11DAMAGE", false));
+                // Vector API for the pixel loops when the JVM has it
+                Pixels.setVectorEnabled(p.getBoolean("SIMD", true));
                 List<Source> sources = Compositor.getSources(mSources, (Integer) spinFPS.getValue());
-                Compositor compositor = new Compositor(sources, new Rectangle(0, 0, (Integer) spinWidth.getValue(), (Integer) spinHeight.getValue()), (Integer) spinFPS.getValue());
+                String yuv = p.get("YUVOUTPUT", "").trim();
+                YUV420.Matrix matrix = null;
+                if (yuv.length() > 0) {
+                    try {
+                        matrix = YUV420.Matrix.valueOf(yuv);
+                    } catch (IllegalArgumentException ex) {
+                        Logger.getLogger(ScreenStudio.class.getName()).log(Level.WARNING, "Invalid YUVOUTPUT {0}, sending BGR", yuv);
+                    }
+                }
+                int threads = Math.max(1, p.getInt("COMPOSITORTHREADS", Compositor.getDefaultThreads()));
+                Compositor compositor = new Compositor(sources, new Rectangle(0, 0, (Integer) spinWidth.getValue(), (Integer) spinHeight.getValue()), (Integer) spinFPS.getValue(), threads, matrix, new FFMpeg(null).getWriterQueue());
                 mFFMpeg = new FFMpeg(compositor);
                 mRemote.setCompositor(compositor);
                 String audio = "default";
@@ -2062,10 +2197,15 @@ public class ScreenStudio extends javax.swing.JFrame {
                         } else {
                             setTitle(LANGUAGES.getString("RECORDING") + "! (" + (seconds / 60) + " min " + (seconds % 60) + " sec)");
                         }
+                        FramePool.Frame frame = null;
                         if (seconds == 20 && !thumbnail.exists()) {
+                            frame = mRemote.getCompositor().getImage();
+                        }
+                        if (frame != null) {
                             BufferedImage img = new BufferedImage(mRemote.getCompositor().getWidth(), mRemote.getCompositor().getHeight(), BufferedImage.TYPE_3BYTE_BGR);
                             byte[] buffer = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
-                            System.arraycopy(mRemote.getCompositor().getImage(), 0, buffer, 0, buffer.length);
+                            System.arraycopy(frame.getData(), 0, buffer, 0, buffer.length);
+                            frame.release();
                             try {
                                 // draw text...
                                 String title = txtThumbnailTitle.getText();
@@ -2230,6 +2370,79 @@ public class ScreenStudio extends javax.swing.JFrame {
         }
     }//GEN-LAST:event_mnuMainAddImageActionPerformed
 
+    private void mnuMainAddVideoActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mnuMainAddVideoActionPerformed
+        JFileChooser chooser = new JFileChooser(mVideoOutputFolder);
+        chooser.setAcceptAllFileFilterUsed(false);
+        chooser.setFileFilter(new FileFilter() {
+            @Override
+            public boolean accept(File f) {
+                String name = f.getName().toUpperCase();
+                return f.isDirectory() || name.endsWith(".MP4") || name.endsWith(".MOV") || name.endsWith(".MKV") || name.endsWith(".FLV") || name.endsWith(".AVI") || name.endsWith(".WEBM") || name.endsWith(".TS") || name.endsWith(".GIF");
+            }
+
+            @Override
+            public String getDescription() {
+                return "Video Files";
+            }
+        });
+        chooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
+        chooser.showOpenDialog(this);
+        if (chooser.getSelectedFile() != null) {
+            //add new source...
+            screenstudio.targets.Source source = new screenstudio.targets.Source(cboSourceViews.getItemCount());
+            source.setCurrentViewIndex(cboSourceViews.getSelectedIndex());
+            source.Views.get(source.CurrentViewIndex).remoteDisplay = true;
+            source.setType(SourceType.Video);
+            source.setSourceObject(chooser.getSelectedFile());
+            source.Views.get(source.CurrentViewIndex).X = 0;
+            source.Views.get(source.CurrentViewIndex).Y = 0;
+            source.Views.get(source.CurrentViewIndex).Width = 320;
+            source.Views.get(source.CurrentViewIndex).Height = 240;
+            source.Views.get(source.CurrentViewIndex).Alpha = 1f;
+            source.Views.get(source.CurrentViewIndex).Order = mSources.size();
+            source.setStartTime(0L);
+            source.setEndTime(0L);
+            source.setTransitionStart(Transition.NAMES.None);
+            source.setTransitionStop(Transition.NAMES.None);
+            source.setEffect(Effect.eEffects.None);
+            source.initOtherViews();
+            bindingGroup.getBinding("MySource").unbind();
+            mSources.add(source);
+            bindingGroup.getBinding("MySource").bind();
+            updateColumnsLayout();
+            updateRemoteSources();
+        }
+    }//GEN-LAST:event_mnuMainAddVideoActionPerformed
+
+    private void mnuMainAddStreamActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mnuMainAddStreamActionPerformed
+        String url = javax.swing.JOptionPane.showInputDialog(this, LANGUAGES.getString("STREAM_URL"), "rtmp://");
+        if (url != null && url.trim().length() > 0) {
+            //add new source...
+            screenstudio.targets.Source source = new screenstudio.targets.Source(cboSourceViews.getItemCount());
+            source.setCurrentViewIndex(cboSourceViews.getSelectedIndex());
+            source.Views.get(source.CurrentViewIndex).remoteDisplay = true;
+            source.setType(SourceType.Stream);
+            source.setSourceObject(url.trim());
+            source.Views.get(source.CurrentViewIndex).X = 0;
+            source.Views.get(source.CurrentViewIndex).Y = 0;
+            source.Views.get(source.CurrentViewIndex).Width = 320;
+            source.Views.get(source.CurrentViewIndex).Height = 240;
+            source.Views.get(source.CurrentViewIndex).Alpha = 1f;
+            source.Views.get(source.CurrentViewIndex).Order = mSources.size();
+            source.setStartTime(0L);
+            source.setEndTime(0L);
+            source.setTransitionStart(Transition.NAMES.None);
+            source.setTransitionStop(Transition.NAMES.None);
+            source.setEffect(Effect.eEffects.None);
+            source.initOtherViews();
+            bindingGroup.getBinding("MySource").unbind();
+            mSources.add(source);
+            bindingGroup.getBinding("MySource").bind();
+            updateColumnsLayout();
+            updateRemoteSources();
+        }
+    }//GEN-LAST:event_mnuMainAddStreamActionPerformed
+
     private void mnuMainAddLabelActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_mnuMainAddLabelActionPerformed
 
         screenstudio.targets.Source source = new screenstudio.targets.Source(cboSourceViews.getItemCount());
@@ -2640,6 +2853,8 @@ public class ScreenStudio extends javax.swing.JFrame {
     private javax.swing.JMenuItem mnuFileSave;
     private javax.swing.JMenuItem mnuMainAddCustom;
     private javax.swing.JMenuItem mnuMainAddImage;
+    private javax.swing.JMenuItem mnuMainAddVideo;
+    private javax.swing.JMenuItem mnuMainAddStream;
     private javax.swing.JMenuItem mnuMainAddLabel;
     private javax.swing.JMenu mnuMainDestops;
     private javax.swing.JMenu mnuMainFrames;
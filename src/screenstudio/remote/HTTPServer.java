@@ -20,7 +20,6 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -36,8 +35,10 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.JMenuItem;
 import screenstudio.sources.Compositor;
+import screenstudio.sources.FramePool;
 import screenstudio.sources.Source;
 import screenstudio.sources.SourceImage;
+import screenstudio.sources.SourceVideo;
 import screenstudio.sources.transitions.Transition;
 
 /**
@@ -189,6 +190,12 @@ public class HTTPServer implements Runnable {
                                 SourceImage sl = (SourceImage) s;
                                 sl.setNextImageDelay(10000);
                                 break;
+                            case "pause":
+                                ((SourceVideo) s).pause();
+                                break;
+                            case "play":
+                                ((SourceVideo) s).resume();
+                                break;
                         }
                     }
                 }
@@ -263,6 +270,10 @@ public class HTTPServer implements Runnable {
                         sources += "<input type=button onclick='document.forms.slideshownext" + i + ".submit();' value='Next' />";
                         sources += "<input type=button onclick='document.forms.slideshowloop" + i + ".submit();' value='Loop' /></center>";
                     }
+                } else if (s instanceof SourceVideo) {
+                    String action = ((SourceVideo) s).isPaused() ? "play" : "pause";
+                    sources += "\r\n<form name='video" + i + "'><input type=hidden value='" + action + "' name='source" + i + "'></form>";
+                    sources += "\r\n<center><input type=button onclick='document.forms.video" + i + ".submit();' value='" + (action.equals("play") ? "Play" : "Pause") + "' /></center>";
                 }
             }
         }
@@ -278,15 +289,20 @@ public class HTTPServer implements Runnable {
 
     private void sendPreview(OutputStream out) throws IOException, IndexOutOfBoundsException {
 
+        FramePool.Frame frame = null;
         if (mCompositor != null) {
+            frame = mCompositor.getImage();
+        }
+        if (frame != null) {
             int newW = mCompositor.getWidth() / 3;
             int newH = mCompositor.getHeight() / 3;
-            BufferedImage img = new BufferedImage(mCompositor.getWidth(), mCompositor.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-            byte[] data = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
-            System.arraycopy(mCompositor.getImage(), 0, data, 0, data.length);
             BufferedImage smallImg = new BufferedImage(newW, newH, BufferedImage.TYPE_INT_RGB);
             Graphics2D g = smallImg.createGraphics();
-            g.drawImage(img.getScaledInstance(newW, newH, Image.SCALE_SMOOTH), 0, 0, null);
+            try {
+                g.drawImage(frame.getImage().getScaledInstance(newW, newH, Image.SCALE_SMOOTH), 0, 0, null);
+            } finally {
+                frame.release();
+            }
             javax.imageio.ImageIO.write(smallImg, "png", out);
             g.dispose();
             out.flush();
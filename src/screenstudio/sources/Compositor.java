@@ -16,19 +16,33 @@
  */
 package screenstudio.sources;
 
+import java.awt.AlphaComposite;
+import java.awt.Dimension;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.awt.image.DataBufferByte;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import screenstudio.gui.LabelText;
 import screenstudio.gui.images.frames.Frames;
+import screenstudio.sources.blitter.Blitter;
+import screenstudio.sources.blitter.YUV420;
 import screenstudio.sources.effects.Effect;
+import screenstudio.sources.effects.EffectChain;
 import screenstudio.sources.transitions.Transition;
 
 /**
@@ -37,32 +51,91 @@ import screenstudio.sources.transitions.Transition;
  */
 public class Compositor implements Runnable {
 
+    /**
+     * Maximum time to wait for all the sources to produce a first frame
+     */
+    public static final long STARTUP_TIMEOUT = 10000;
     private java.util.List<Source> mSources;
+    private final ArrayList<String> mStartupFailures = new ArrayList<>();
     private final int mFPS;
     private final Rectangle mOutputSize;
-    private byte[] mData;
+    private final FramePool mFrames;
     private boolean mIsReady = false;
-    private final long mStartTime;
+    private final MediaClock mClock;
     private boolean mRequestStop = false;
-    private byte[] mPreviewBuffer;
     private long mTimeDelta = 0;
-    private Effect mEffects = new Effect();
+    private final LayerCache mLayers;
+    private Source[] mVisible = new Source[0];
+    private final StripeExecutor mStripes;
+    private final Rectangle[] mStripeClips;
+    private final StripeExecutor.Task mRenderTask = this::renderStripe;
+    private BufferedImage[] mOpImages = new BufferedImage[0];
+    private boolean[] mOpNative = new boolean[0];
+    private AlphaComposite[] mOpAlphas = new AlphaComposite[0];
+    private Rectangle[] mOpRects = new Rectangle[0];
+    private int mOpCount = 0;
+    private byte[] mBackground = null;
+    private FramePool.Frame mCurrentFrame = null;
+    private Blitter.Scaling mScaling = Blitter.Scaling.Nearest;
+    private final YUV420.Matrix mYUV;
+    private final byte[][][] mYUVRows;
+    private final StripeExecutor.Task mYUVTask = this::convertStripe;
+    private long mReusedFrames = 0;
+    private volatile long mComposedFrames = 0;
 
     public Compositor(java.util.List<Source> sources, Rectangle outputSize, int fps) {
+        this(sources, outputSize, fps, getDefaultThreads());
+    }
+
+    /**
+     * @param sources
+     * @param outputSize
+     * @param fps
+     * @param threads number of threads composing stripes of each frame, 1 to
+     * compose on the compositor thread only
+     */
+    public Compositor(java.util.List<Source> sources, Rectangle outputSize, int fps, int threads) {
+        this(sources, outputSize, fps, threads, null);
+    }
+
+    /**
+     * @param sources
+     * @param outputSize
+     * @param fps
+     * @param threads number of threads composing stripes of each frame, 1 to
+     * compose on the compositor thread only
+     * @param yuv send the frames to the encoder in YUV 4:2:0 with this matrix,
+     * null to send BGR
+     */
+    public Compositor(java.util.List<Source> sources, Rectangle outputSize, int fps, int threads, YUV420.Matrix yuv) {
+        this(sources, outputSize, fps, threads, yuv, 3);
+    }
+
+    /**
+     * @param sources
+     * @param outputSize
+     * @param fps
+     * @param threads number of threads composing stripes of each frame, 1 to
+     * compose on the compositor thread only
+     * @param yuv send the frames to the encoder in YUV 4:2:0 with this matrix,
+     * null to send BGR
+     * @param queue capacity of the queue of the frame writer
+     */
+    public Compositor(java.util.List<Source> sources, Rectangle outputSize, int fps, int threads, YUV420.Matrix yuv, int queue) {
+        mYUV = yuv;
+        mStripes = new StripeExecutor(threads, threads * 2);
+        mStripeClips = new Rectangle[mStripes.getStripeCount(outputSize.height)];
+        for (int i = 0; i < mStripeClips.length; i++) {
+            int y0 = mStripes.getStripeStart(i, outputSize.height);
+            int y1 = mStripes.getStripeStart(i + 1, outputSize.height);
+            mStripeClips[i] = new Rectangle(0, y0, outputSize.width, y1 - y0);
+        }
         sources.sort((a, b) -> Integer.compare(b.getZOrder(), a.getZOrder()));
         mSources = sources;
         mOutputSize = outputSize;
         mFPS = fps;
-        for (Source s : mSources) {
-            s.start();
-            while (s.getImage() == null) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException ex) {
-                    Logger.getLogger(Compositor.class.getName()).log(Level.SEVERE, null, ex);
-                }
-            }
-        }
+        mLayers = new LayerCache(mOutputSize);
+        startSources();
         // Apply transitions...
         for (Source s : mSources) {
             if (s.getTransitionStart() != Transition.NAMES.None && s.getStartDisplayTime() == 0) {
@@ -71,12 +144,104 @@ public class Compositor implements Runnable {
                 new Thread(t).start();
             }
         }
-        mData = new byte[0];
-        mStartTime = System.currentTimeMillis();
+        // Writer, latest, preview reader and the frames queued for the encoder...
+        int count = Math.max(1, queue) + 3;
+        if (mYUV == null) {
+            int[] slices = new int[mStripeClips.length];
+            for (int i = 0; i < slices.length; i++) {
+                slices[i] = mStripeClips[i].y * mOutputSize.width * 3;
+            }
+            mFrames = new FramePool(mOutputSize.width, mOutputSize.height, BufferedImage.TYPE_3BYTE_BGR, count, mOutputSize.width * mOutputSize.height * 3, slices);
+            mYUVRows = null;
+        } else {
+            // Y, U and V slices of each stripe, in the order of the planes
+            int width = mOutputSize.width;
+            int cw = YUV420.getChromaWidth(width);
+            int ch = YUV420.getChromaHeight(mOutputSize.height);
+            int stripes = mStripes.getStripeCount(ch);
+            int[] slices = new int[stripes * 3];
+            for (int i = 0; i < stripes; i++) {
+                int row = mStripes.getStripeStart(i, ch);
+                slices[i] = row * 2 * width;
+                slices[stripes + i] = width * mOutputSize.height + row * cw;
+                slices[stripes * 2 + i] = width * mOutputSize.height + ch * cw + row * cw;
+            }
+            mFrames = new FramePool(mOutputSize.width, mOutputSize.height, BufferedImage.TYPE_3BYTE_BGR, count, YUV420.getFrameSize(width, mOutputSize.height), slices);
+            mYUVRows = new byte[stripes][4][];
+            for (byte[][] rows : mYUVRows) {
+                rows[0] = new byte[width];
+                rows[1] = new byte[width];
+                rows[2] = new byte[cw];
+                rows[3] = new byte[cw];
+            }
+        }
+        mClock = new MediaClock(fps);
+        for (Source s : mSources) {
+            s.setClock(mClock);
+        }
         new Thread(this).start();
         mIsReady = true;
     }
 
+    /**
+     * Start all the sources at the same time and wait until each of them
+     * produced a first frame or the startup deadline is reached. Sources that
+     * are not ready are not drawn until they are.
+     */
+    private void startSources() {
+        long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT;
+        ExecutorService starter = Executors.newFixedThreadPool(Math.max(1, mSources.size()));
+        ArrayList<CompletableFuture<Source>> ready = new ArrayList<>();
+        for (Source s : mSources) {
+            ready.add(CompletableFuture.supplyAsync(() -> {
+                s.start();
+                if (s.getStartError() != null) {
+                    throw new CompletionException(s.getStartError());
+                }
+                while (!s.isReady() && System.currentTimeMillis() < deadline) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }
+                return s;
+            }, starter));
+        }
+        try {
+            CompletableFuture.allOf(ready.toArray(new CompletableFuture<?>[ready.size()])).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException | ExecutionException | TimeoutException ex) {
+            // Reported below...
+        }
+        starter.shutdown();
+        mStartupFailures.clear();
+        for (int i = 0; i < ready.size(); i++) {
+            Source s = mSources.get(i);
+            CompletableFuture<Source> f = ready.get(i);
+            if (f.isCompletedExceptionally()) {
+                try {
+                    f.join();
+                } catch (CompletionException ex) {
+                    mStartupFailures.add(s.getID() + " (" + s.getType() + ") failed to start: " + ex.getCause().getMessage());
+                }
+            } else if (!f.isDone() || !s.isReady()) {
+                mStartupFailures.add(s.getID() + " (" + s.getType() + ") did not produce a frame after " + STARTUP_TIMEOUT + " ms");
+            }
+        }
+        for (String failure : mStartupFailures) {
+            System.err.println("Source startup: " + failure);
+        }
+        Logger.getLogger(Compositor.class.getName()).log(Level.FINE, "Sources started in {0} ms", STARTUP_TIMEOUT - Math.max(0, deadline - System.currentTimeMillis()));
+    }
+
+    /**
+     * @return the sources that failed to start or were late, empty if all of
+     * them are ready
+     */
+    public List<String> getStartupFailures() {
+        return mStartupFailures;
+    }
+
     public void setCurrentView(int index) {
         ArrayList<Source> newList = new ArrayList<>();
         for (Source s : mSources) {
@@ -94,6 +259,7 @@ public class Compositor implements Runnable {
             }
         }
         mSources = newList;
+        mLayers.invalidate();
     }
 
     public long getTimeDelta() {
@@ -104,8 +270,13 @@ public class Compositor implements Runnable {
         return mSources;
     }
 
-    public byte[] getImage() {
-        return mPreviewBuffer;
+    /**
+     * Get the latest frame for the preview. The frame must be released.
+     *
+     * @return the frame or null if none was composed yet
+     */
+    public FramePool.Frame getImage() {
+        return mFrames.retainLatest();
     }
 
     public boolean isReady() {
@@ -116,14 +287,41 @@ public class Compositor implements Runnable {
         mRequestStop = true;
     }
 
-    public byte[] getData() {
-        return mData;
+    /**
+     * Get the latest frame for the encoder. The frame must be released.
+     *
+     * @return the frame or null if none was composed yet
+     */
+    public FramePool.Frame getData() {
+        return mFrames.retainLatest();
     }
 
     public int getFPS() {
         return mFPS;
     }
 
+    /**
+     * @return the pixel format of the frames sent to the encoder
+     */
+    public String getPixelFormat() {
+        return mYUV == null ? "bgr24" : "yuv420p";
+    }
+
+    /**
+     * @return the YUV matrix of the frames sent to the encoder or null for
+     * BGR
+     */
+    public YUV420.Matrix getColorMatrix() {
+        return mYUV;
+    }
+
+    /**
+     * @return the clock the frames are stamped with
+     */
+    public MediaClock getClock() {
+        return mClock;
+    }
+
     public int getWidth() {
         return mOutputSize.width;
     }
@@ -132,6 +330,43 @@ public class Compositor implements Runnable {
         return mOutputSize.height;
     }
 
+    /**
+     * Leave a core for the encoder and one for the capture processes
+     *
+     * @return the default number of compositing threads
+     */
+    public static int getDefaultThreads() {
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    }
+
+    public int getThreads() {
+        return mStripes.getThreads();
+    }
+
+    /**
+     * @return how many frames were not composed because no source changed
+     */
+    public long getReusedFrames() {
+        return mReusedFrames;
+    }
+
+    /**
+     * @return how many frames were composed
+     */
+    public long getComposedFrames() {
+        return mComposedFrames;
+    }
+
+    /**
+     * Use bilinear filtering instead of nearest neighbour when a source must
+     * be scaled to its view
+     *
+     * @param value
+     */
+    public void setSmoothScaling(boolean value) {
+        mScaling = value ? Blitter.Scaling.Bilinear : Blitter.Scaling.Nearest;
+    }
+
     public void stop() {
         System.out.println("Compositor is stopping");
         for (Source s : mSources) {
@@ -139,36 +374,93 @@ public class Compositor implements Runnable {
         }
     }
 
+    /**
+     * A source can be captured slower than the output, the compositor reuses
+     * its last frame in between
+     *
+     * @param source
+     * @param fps the output frame rate
+     * @return the capture frame rate of the source
+     */
+    private static int getCaptureFPS(screenstudio.targets.Source source, int fps) {
+        return source.getCaptureFPS() > 0 ? Math.min(source.getCaptureFPS(), fps) : fps;
+    }
+
     public static List<Source> getSources(ArrayList<screenstudio.targets.Source> sources, int fps) {
         java.util.ArrayList<screenstudio.sources.Source> list = new java.util.ArrayList();
+        // A device used by more than one source has one capture: the area
+        // covering all the screens of a display and the size of the first
+        // view of a webcam, at the highest frame rate of the sources using
+        // it. The other devices are captured at the size of their source.
+        HashMap<String, Rectangle> displays = new HashMap<>();
+        HashMap<String, Dimension> webcams = new HashMap<>();
+        HashMap<String, Integer> rates = new HashMap<>();
+        HashMap<String, Integer> users = new HashMap<>();
+        for (int i = sources.size() - 1; i >= 0; i--) {
+            Object source = sources.get(i).getSourceObject();
+            int rate = getCaptureFPS(sources.get(i), fps);
+            if (source instanceof Screen) {
+                Screen screen = (Screen) source;
+                if (screen.isFollowingMouse() && Screen.isFollowMouseSupported()) {
+                    // Has its own capture window
+                    continue;
+                }
+                Rectangle area = displays.get(screen.getDisplay());
+                displays.put(screen.getDisplay(), area == null ? new Rectangle(screen.getSize()) : area.union(screen.getSize()));
+                rates.merge(screen.getDisplay(), rate, Math::max);
+                users.merge(screen.getDisplay(), 1, Integer::sum);
+            } else if (source instanceof Webcam) {
+                screenstudio.targets.Source.View view = sources.get(i).getViews().get(0);
+                webcams.putIfAbsent(((Webcam) source).getDevice(), new Dimension(view.Width, view.Height));
+                rates.merge(((Webcam) source).getDevice(), rate, Math::max);
+                users.merge(((Webcam) source).getDevice(), 1, Integer::sum);
+            }
+        }
         for (int i = sources.size() - 1; i >= 0; i--) {
             long timestart = sources.get(i).getStartTime();
             long timeend = sources.get(i).getEndTime();
             Transition.NAMES transIn = sources.get(i).getTransitionStart();
             Transition.NAMES transOut = sources.get(i).getTransitionStop();
             Effect.eEffects effect = sources.get(i).getEffect();
+            EffectChain effects = sources.get(i).getEffectChain();
             Object source = sources.get(i).getSourceObject();
+            int rate = getCaptureFPS(sources.get(i), fps);
             // Detect type of source...
             if (source instanceof Screen) {
                 Screen screen = (Screen) source;
-                SourceFFMpeg s = SourceFFMpeg.getDesktopInstance(screen, sources.get(i).getViews(), fps);
-                s.setFPS(fps);
+                Source s;
+                if (SourceX11.isSupported(screen)) {
+                    s = SourceX11.getInstance(screen, sources.get(i).getViews(), rate);
+                } else if (users.getOrDefault(screen.getDisplay(), 0) > 1) {
+                    s = SourceFFMpeg.getDesktopInstance(screen, displays.get(screen.getDisplay()), sources.get(i).getViews(), rates.get(screen.getDisplay()));
+                } else {
+                    s = SourceFFMpeg.getDesktopInstance(screen, sources.get(i).getViews(), rate);
+                }
                 s.setDisplayTime(timestart, timeend);
                 s.setTransitionStart(transIn);
                 s.setTransitionStop(transOut);
                 s.setEffect(effect);
+                s.setEffectChain(effects);
                 s.setViewIndex(sources.get(i).getCurrentViewIndex());
                 list.add(s);
             } else if (source instanceof Webcam) {
                 Webcam webcam = (Webcam) source;
-                webcam.setWidth(sources.get(i).getViews().get(0).Width);
-                webcam.setHeight(sources.get(i).getViews().get(0).Height);
-                SourceFFMpeg s = SourceFFMpeg.getWebcamInstance(webcam, sources.get(i).getViews(), fps);
-                s.setFPS(fps);
+                if (users.get(webcam.getDevice()) > 1) {
+                    webcam.setWidth(webcams.get(webcam.getDevice()).width);
+                    webcam.setHeight(webcams.get(webcam.getDevice()).height);
+                } else {
+                    webcam.setWidth(sources.get(i).getViews().get(0).Width);
+                    webcam.setHeight(sources.get(i).getViews().get(0).Height);
+                }
+                // The green screen is a setting of the source, sources
+                // sharing a webcam are keyed separately
+                int green = sources.get(i).isGreenScreen() ? sources.get(i).getGreenSensitivity() : 0;
+                SourceFFMpeg s = SourceFFMpeg.getWebcamInstance(webcam, sources.get(i).getViews(), rates.get(webcam.getDevice()), green);
                 s.setDisplayTime(timestart, timeend);
                 s.setTransitionStart(transIn);
                 s.setTransitionStop(transOut);
                 s.setEffect(effect);
+                s.setEffectChain(effects);
                 s.setViewIndex(sources.get(i).getCurrentViewIndex());
                 list.add(s);
             } else if (source instanceof File) {
@@ -179,9 +471,22 @@ public class Compositor implements Runnable {
                         s.setTransitionStart(transIn);
                         s.setTransitionStop(transOut);
                         s.setEffect(effect);
+                        s.setEffectChain(effects);
                         s.setViewIndex(sources.get(i).getCurrentViewIndex());
                         list.add(s);
                         break;
+                    case Video:
+                        SourceVideo v = new SourceVideo(sources.get(i).getViews(), ((File) source).getAbsolutePath(), rate, ((File) source).getAbsolutePath());
+                        v.setLoop(sources.get(i).isLoop());
+                        v.setOffset(sources.get(i).getOffset());
+                        v.setDisplayTime(timestart, timeend);
+                        v.setTransitionStart(transIn);
+                        v.setTransitionStop(transOut);
+                        v.setEffect(effect);
+                        v.setEffectChain(effects);
+                        v.setViewIndex(sources.get(i).getCurrentViewIndex());
+                        list.add(v);
+                        break;
                 }
             } else if (source instanceof SlideShow) {
                 SourceImage s = new SourceImage(sources.get(i).getViews(), (SlideShow) source);
@@ -189,6 +494,7 @@ public class Compositor implements Runnable {
                 s.setTransitionStart(transIn);
                 s.setTransitionStop(transOut);
                 s.setEffect(effect);
+                s.setEffectChain(effects);
                 s.setViewIndex(sources.get(i).getCurrentViewIndex());
                 list.add(s);
             } else if (source instanceof LabelText) {
@@ -198,6 +504,7 @@ public class Compositor implements Runnable {
                 s.setTransitionStart(transIn);
                 s.setTransitionStop(transOut);
                 s.setEffect(effect);
+                s.setEffectChain(effects);
                 s.setViewIndex(sources.get(i).getCurrentViewIndex());
                 list.add(s);
             } else if (source instanceof Frames.eList) {
@@ -207,6 +514,7 @@ public class Compositor implements Runnable {
                     s.setTransitionStart(transIn);
                     s.setTransitionStop(transOut);
                     s.setEffect(effect);
+                    s.setEffectChain(effects);
                     s.setViewIndex(sources.get(i).getCurrentViewIndex());
                     list.add(s);
                 } catch (IOException ex) {
@@ -214,15 +522,26 @@ public class Compositor implements Runnable {
             } else if (source instanceof String) {
                 switch (sources.get(i).getType()) {
                     case Custom:
-                        SourceFFMpeg s = SourceFFMpeg.getCustomInstance(sources.get(i), sources.get(i).getViews(), fps);
-                        s.setFPS(fps);
+                        SourceFFMpeg s = SourceFFMpeg.getCustomInstance(sources.get(i), sources.get(i).getViews(), rate);
                         s.setDisplayTime(timestart, timeend);
                         s.setTransitionStart(transIn);
                         s.setTransitionStop(transOut);
                         s.setEffect(effect);
+                        s.setEffectChain(effects);
                         s.setViewIndex(sources.get(i).getCurrentViewIndex());
                         list.add(s);
                         break;
+                    case Stream:
+                        SourceStream v = new SourceStream(sources.get(i).getViews(), (String) source, rate);
+                        v.setBuffer(sources.get(i).getBuffer());
+                        v.setDisplayTime(timestart, timeend);
+                        v.setTransitionStart(transIn);
+                        v.setTransitionStop(transOut);
+                        v.setEffect(effect);
+                        v.setEffectChain(effects);
+                        v.setViewIndex(sources.get(i).getCurrentViewIndex());
+                        list.add(v);
+                        break;
                 }
             }
         }
@@ -232,56 +551,218 @@ public class Compositor implements Runnable {
     @Override
     public void run() {
 
-        long frameDelay = 1000 / mFPS;
-        long nextPTS = System.currentTimeMillis() + frameDelay;
+        long tick = 0;
+        boolean composed = false;
         while (!mRequestStop) {
-            BufferedImage img = new BufferedImage(mOutputSize.width, mOutputSize.height, BufferedImage.TYPE_3BYTE_BGR);
-            Graphics2D g = img.createGraphics();
-            mTimeDelta = (System.currentTimeMillis() - mStartTime) / 1000;
-            for (int i = 0; i < mSources.size(); i++) {
-                Source s = mSources.get(i);
-                if (s.isRemoteDisplay()) {
-                    if ((s.getEndDisplayTime() == 0 || s.getEndDisplayTime() >= mTimeDelta)
-                            && (s.getStartDisplayTime() <= mTimeDelta)) {
-                        //Showing for the first time???
-                        if (s.getTransitionStart() != Transition.NAMES.None) {
-                            //Then we can trigger the start event...
-                            Transition t = Transition.getInstance(s.getTransitionStart(), s, mFPS, mOutputSize);
+            mTimeDelta = mClock.getTime(tick) / 1000000000L;
+            for (Source s : mSources) {
+                s.update();
+            }
+            int count = updateVisibleSources();
+            boolean changed = mLayers.update(mVisible, count);
+            if (changed || !composed) {
+                FramePool.Frame frame = mFrames.acquire();
+                if (frame != null) {
+                    compose(frame, count);
+                    frame.setPTS(tick);
+                    mFrames.publish(frame);
+                    mComposedFrames++;
+                    composed = true;
+                } else {
+                    // All frames are still being read, keep the last one and
+                    // compose on the next tick
+                    composed = false;
+                    mFrames.restampLatest(tick);
+                }
+            } else {
+                // Nothing changed, the last frame is still valid
+                mFrames.restampLatest(tick);
+                mReusedFrames++;
+            }
+            long next = mClock.getTick() + 1;
+            if (next > tick + 1) {
+                // Composing took longer than a frame, skip the missed ticks
+                mClock.addLateFrames(next - tick - 1);
+            }
+            tick = next;
+            mClock.waitFor(tick, 0);
+        }
+        mStripes.shutdown();
+        mRequestStop = false;
+    }
+
+    /**
+     * Trigger the transitions and list the sources to draw in this frame
+     *
+     * @return the number of sources in mVisible
+     */
+    private int updateVisibleSources() {
+        List<Source> sources = mSources;
+        if (mVisible.length < sources.size()) {
+            mVisible = new Source[sources.size()];
+        }
+        int count = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            Source s = sources.get(i);
+            if (s.isRemoteDisplay() && s.isReady()) {
+                if ((s.getEndDisplayTime() == 0 || s.getEndDisplayTime() >= mTimeDelta)
+                        && (s.getStartDisplayTime() <= mTimeDelta)) {
+                    //Showing for the first time???
+                    if (s.getTransitionStart() != Transition.NAMES.None) {
+                        //Then we can trigger the start event...
+                        Transition t = Transition.getInstance(s.getTransitionStart(), s, mFPS, mOutputSize);
+                        new Thread(t).start();
+                        s.setTransitionStart(Transition.NAMES.None);
+                    } else {
+                        if (s.getTransitionStop() != Transition.NAMES.None && (mRequestStop || (s.getEndDisplayTime() - 1 == mTimeDelta))) {
+                            Transition t = Transition.getInstance(s.getTransitionStop(), s, mFPS, mOutputSize);
                             new Thread(t).start();
-                            s.setTransitionStart(Transition.NAMES.None);
-                        } else {
-                            if (s.getTransitionStop() != Transition.NAMES.None && (mRequestStop || (s.getEndDisplayTime() - 1 == mTimeDelta))) {
-                                Transition t = Transition.getInstance(s.getTransitionStop(), s, mFPS, mOutputSize);
-                                new Thread(t).start();
-                                s.setTransitionStop(Transition.NAMES.None);
-                            }
-                            g.setComposite(s.getAlpha());
-                            Rectangle r = s.getBounds();
-                            BufferedImage source;
-                            if (s.getEffect() == Effect.eEffects.None) {
-                                source = s.getImage();
-                            } else {
-                                source = mEffects.apply(s.getEffect(), s.getImage());
-                            }
-                            g.drawImage(source, r.x, r.y, r.x + r.width, r.y + r.height, 0, 0, source.getWidth(), source.getHeight(), null);
+                            s.setTransitionStop(Transition.NAMES.None);
                         }
+                        mVisible[count++] = s;
                     }
                 }
             }
-            mData = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
-            mPreviewBuffer = mData;
-            g.dispose();
-            long wait = nextPTS - System.currentTimeMillis();
-            if (wait > 0) {
-                try {
-                    Thread.sleep(wait);
-                } catch (InterruptedException ex) {
-                    Logger.getLogger(Compositor.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return count;
+    }
+
+    /**
+     * Prepare the list of images to draw, then render them over stripes of
+     * the output frame.
+     */
+    private void compose(FramePool.Frame frame, int count) {
+        if (mOpImages.length < count) {
+            mOpImages = new BufferedImage[count];
+            mOpNative = new boolean[count];
+            mOpAlphas = new AlphaComposite[count];
+            mOpRects = new Rectangle[count];
+            for (int i = 0; i < count; i++) {
+                mOpRects[i] = new Rectangle();
+            }
+        }
+        mOpCount = 0;
+        mBackground = null;
+        int run = 0;
+        int i = 0;
+        while (i < count) {
+            if (mLayers.isCacheable(mVisible[i])) {
+                int end = i + 1;
+                while (end < count && mLayers.isCacheable(mVisible[end])) {
+                    end++;
+                }
+                LayerCache.Layer layer = mLayers.getLayer(run++, mVisible, i, end);
+                if (!layer.isValid()) {
+                    buildLayer(layer);
+                }
+                if (layer.isBottom()) {
+                    mBackground = layer.getData();
+                } else {
+                    mOpImages[mOpCount] = layer.getImage();
+                    mOpAlphas[mOpCount] = AlphaComposite.SrcOver;
+                    mOpRects[mOpCount].setBounds(layer.getArea());
+                    mOpCount++;
                 }
+                i = end;
+            } else {
+                Source s = mVisible[i];
+                // Snapshot, transitions are moving the sources from other threads
+                mOpImages[mOpCount] = getSourceImage(s);
+                mOpAlphas[mOpCount] = s.getAlpha();
+                mOpRects[mOpCount].setBounds(s.getBounds());
+                mOpCount++;
+                i++;
             }
-            nextPTS += frameDelay;
         }
-        mRequestStop = false;
+        for (int op = 0; op < mOpCount; op++) {
+            mOpNative[op] = Blitter.isSupported(mOpImages[op]) && mOpAlphas[op].getRule() == AlphaComposite.SRC_OVER
+                    && !Blitter.isJava2DFaster(mOpImages[op], mOpRects[op], mOpAlphas[op].getAlpha(), mScaling);
+        }
+        for (int stripe = 0; stripe < mStripeClips.length; stripe++) {
+            frame.getGraphics(stripe, mStripeClips[stripe]);
+        }
+        mCurrentFrame = frame;
+        mStripes.execute(mOutputSize.height, mRenderTask);
+        if (mYUV != null) {
+            mStripes.execute(YUV420.getChromaHeight(mOutputSize.height), mYUVTask);
+        }
+        mCurrentFrame = null;
+    }
+
+    private void renderStripe(int stripe, int y0, int y1) {
+        FramePool.Frame frame = mCurrentFrame;
+        int offset = y0 * mOutputSize.width * 3;
+        int length = (y1 - y0) * mOutputSize.width * 3;
+        if (mBackground == null) {
+            Arrays.fill(frame.getData(), offset, offset + length, (byte) 0);
+        } else {
+            System.arraycopy(mBackground, offset, frame.getData(), offset, length);
+        }
+        Graphics2D g = frame.getGraphics(stripe, null);
+        for (int i = 0; i < mOpCount; i++) {
+            Rectangle r = mOpRects[i];
+            if (r.y < y1 && r.y + r.height > y0) {
+                BufferedImage source = mOpImages[i];
+                if (mOpNative[i]) {
+                    Blitter.draw(frame.getData(), mOutputSize.width, mOutputSize.height, y0, y1, source, r, mOpAlphas[i].getAlpha(), mScaling);
+                } else {
+                    g.setComposite(mOpAlphas[i]);
+                    g.drawImage(source, r.x, r.y, r.x + r.width, r.y + r.height, 0, 0, source.getWidth(), source.getHeight(), null);
+                }
+            }
+        }
+        if (mYUV == null) {
+            // Copy to native memory while the rows are still in the cache...
+            frame.getSlice(stripe).put(frame.getData(), offset, length);
+        }
+    }
+
+    /**
+     * Convert the chroma rows from c0 to c1 and the matching luma rows to the
+     * native copy of the frame
+     */
+    private void convertStripe(int stripe, int c0, int c1) {
+        FramePool.Frame frame = mCurrentFrame;
+        int count = mYUVRows.length;
+        int width = mOutputSize.width;
+        int height = mOutputSize.height;
+        byte[][] rows = mYUVRows[stripe];
+        ByteBuffer y = frame.getSlice(stripe);
+        ByteBuffer u = frame.getSlice(count + stripe);
+        ByteBuffer v = frame.getSlice(count * 2 + stripe);
+        for (int c = c0; c < c1; c++) {
+            YUV420.convertRows(frame.getData(), width, height, c, rows[0], rows[1], rows[2], rows[3], mYUV);
+            y.put(rows[0]);
+            if (c * 2 + 1 < height) {
+                y.put(rows[1]);
+            }
+            u.put(rows[2]);
+            v.put(rows[3]);
+        }
+    }
+
+    private void buildLayer(LayerCache.Layer layer) {
+        Graphics2D g = layer.getImage().createGraphics();
+        Rectangle area = layer.getArea();
+        for (int i = 0; i < layer.getCount(); i++) {
+            Source s = layer.getMember(i);
+            Rectangle r = s.getBounds();
+            BufferedImage source = getSourceImage(s);
+            int x = r.x - area.x;
+            int y = r.y - area.y;
+            g.setComposite(s.getAlpha());
+            g.drawImage(source, x, y, x + r.width, y + r.height, 0, 0, source.getWidth(), source.getHeight(), null);
+        }
+        g.dispose();
+        mLayers.built(layer);
+    }
+
+    private BufferedImage getSourceImage(Source s) {
+        if (s.getEffect() == Effect.eEffects.None && s.getEffectChain().isEmpty()) {
+            return s.getImage();
+        } else {
+            return s.getEffectImage();
+        }
     }
 
 }
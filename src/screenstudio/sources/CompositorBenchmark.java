@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Time to compose a 1440p frame with 1 to availableProcessors threads.
+ *
+ * The sources change on every tick like a desktop and webcams: a full screen
+ * desktop, a scaled window with a global alpha and a webcam with a per-pixel
+ * alpha. The compositor runs at a frame rate it can't keep, so it composes
+ * frames back to back.
+ *
+ * java -cp build/classes screenstudio.sources.CompositorBenchmark [frames]
+ *
+ * The benchmarks are left out of the jar (dist.archive.excludes).
+ *
+ * @author patrick
+ */
+public class CompositorBenchmark {
+
+    private static final int WIDTH = 2560;
+    private static final int HEIGHT = 1440;
+    private static final int FPS = 1000;
+
+    /**
+     * A new frame on every tick of the clock, copied from random pixels
+     */
+    private static class Changing extends Source {
+
+        private final byte[] mPixels;
+
+        private Changing(int x, int y, int width, int height, float alpha, int order, int imageType) {
+            super(views(x, y, width, height, alpha, order), 0, "Benchmark " + order, imageType);
+            mPixels = new byte[width * height * (imageType == BufferedImage.TYPE_4BYTE_ABGR ? 4 : 3)];
+            Random random = new Random(order);
+            random.nextBytes(mPixels);
+            if (imageType == BufferedImage.TYPE_4BYTE_ABGR) {
+                // Mostly opaque or transparent, like a keyed webcam
+                for (int i = 0; i < mPixels.length; i += 4) {
+                    int a = random.nextInt(10);
+                    mPixels[i] = (byte) (a < 4 ? 0 : a < 8 ? 255 : random.nextInt(256));
+                }
+            }
+        }
+
+        private static List<screenstudio.targets.Source.View> views(int x, int y, int width, int height, float alpha, int order) {
+            screenstudio.targets.Source.View view = new screenstudio.targets.Source.View();
+            view.X = x;
+            view.Y = y;
+            view.Width = width;
+            view.Height = height;
+            view.Alpha = alpha;
+            view.Order = order;
+            return Arrays.asList(view);
+        }
+
+        @Override
+        public long getFrameSequence() {
+            return mClock == null ? 1 : mClock.getTick() + 1;
+        }
+
+        @Override
+        protected void getData(byte[] buffer) throws IOException {
+            System.arraycopy(mPixels, 0, buffer, 0, buffer.length);
+        }
+
+        @Override
+        protected void initStream() throws IOException {
+        }
+
+        @Override
+        protected void disposeStream() throws IOException {
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println(String.format("%dx%d, %d frames, default %d threads", WIDTH, HEIGHT, frames, Compositor.getDefaultThreads()));
+        for (int threads = 1; threads <= cores; threads++) {
+            List<Source> sources = new ArrayList<>();
+            sources.add(new Changing(0, 0, WIDTH, HEIGHT, 1f, 0, BufferedImage.TYPE_3BYTE_BGR));
+            // Captured at 720p, drawn larger
+            Source window = new Changing(200, 100, 1280, 720, 0.8f, 1, BufferedImage.TYPE_3BYTE_BGR);
+            window.getBounds().setSize(1600, 900);
+            sources.add(window);
+            sources.add(new Changing(WIDTH - 700, HEIGHT - 420, 640, 360, 1f, 2, BufferedImage.TYPE_4BYTE_ABGR));
+            Compositor compositor = new Compositor(sources, new Rectangle(0, 0, WIDTH, HEIGHT), FPS, threads);
+            // Warm up
+            waitFor(compositor, frames / 5);
+            long first = compositor.getComposedFrames();
+            long start = System.nanoTime();
+            waitFor(compositor, first + frames);
+            double ms = (System.nanoTime() - start) / 1000000D / (compositor.getComposedFrames() - first);
+            compositor.RequestStop();
+            compositor.stop();
+            System.out.println(String.format("%2d threads: %6.2f ms/frame", threads, ms));
+            // Let the compositor thread end
+            Thread.sleep(100);
+        }
+    }
+
+    private static void waitFor(Compositor compositor, long count) throws InterruptedException {
+        while (compositor.getComposedFrames() < count) {
+            Thread.sleep(1);
+        }
+    }
+}
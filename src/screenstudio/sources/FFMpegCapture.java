@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.IOException;
+import screenstudio.encoder.ProcessReader;
+
+/**
+ * A running ffmpeg process producing raw BGR frames on its output.
+ *
+ * The frames are read into a fixed ring so that the capture can outlive the
+ * source using it, and be handed to the next one by the SourcePool.
+ *
+ * @author patrick
+ */
+public class FFMpegCapture implements Runnable {
+
+    private final String mCommand;
+    private final int mWidth;
+    private final int mHeight;
+    private Process mProcess;
+    private DataInputStream mInputData;
+    private volatile boolean mStopMe = false;
+    private volatile boolean mAlive = false;
+    private FramePool mFrames;
+    private byte[] mSkipBuffer;
+
+    public FFMpegCapture(String command, int width, int height) {
+        mCommand = command;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Start the process and wait for the first frame
+     *
+     * @throws IOException
+     */
+    public void start() throws IOException {
+        mStopMe = false;
+        mProcess = Runtime.getRuntime().exec(mCommand);
+        new Thread(new ProcessReader(mProcess.getErrorStream())).start();
+        System.out.println(mCommand);
+        mInputData = new DataInputStream(mProcess.getInputStream());
+        // Latest, one being read by the compositor and one being filled...
+        mFrames = new FramePool(mWidth, mHeight, BufferedImage.TYPE_3BYTE_BGR, 3);
+        readFrame();
+        mAlive = true;
+        new Thread(this).start();
+    }
+
+    @Override
+    public void run() {
+        while (!mStopMe) {
+            try {
+                readFrame();
+            } catch (IOException ex) {
+                mStopMe = true;
+            }
+        }
+        mAlive = false;
+    }
+
+    /**
+     * Read the next frame from ffmpeg into a free slot of the ring
+     *
+     * @throws IOException
+     */
+    private void readFrame() throws IOException {
+        FramePool.Frame frame = mFrames.acquire();
+        if (frame == null) {
+            // Every slot is being read, the frame must still be consumed...
+            if (mSkipBuffer == null) {
+                mSkipBuffer = new byte[mWidth * mHeight * 3];
+            }
+            mInputData.readFully(mSkipBuffer);
+            return;
+        }
+        try {
+            mInputData.readFully(frame.getData());
+        } catch (IOException ex) {
+            mFrames.discard(frame);
+            throw ex;
+        }
+        mFrames.publish(frame);
+    }
+
+    /**
+     * Get the latest complete frame. The caller must release it.
+     *
+     * @return
+     */
+    public FramePool.Frame retainLatest() {
+        return mFrames == null ? null : mFrames.retainLatest();
+    }
+
+    /**
+     * @return the number of frames read so far
+     */
+    public long getSequence() {
+        return mFrames == null ? 0 : mFrames.getSequence();
+    }
+
+    /**
+     * @return true while ffmpeg is producing frames
+     */
+    public boolean isAlive() {
+        return mAlive && !mStopMe;
+    }
+
+    public String getCommand() {
+        return mCommand;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public void close() throws IOException {
+        mStopMe = true;
+        if (mProcess == null) {
+            return;
+        }
+        try {
+            mProcess.getOutputStream().write("q\n".getBytes());
+            mProcess.getOutputStream().flush();
+            mProcess.getOutputStream().close();
+        } catch (IOException ex) {
+            //just in case the stream is already closed...
+        }
+        mInputData.close();
+        mProcess.destroy();
+        mProcess.destroyForcibly();
+        mProcess = null;
+        mInputData = null;
+    }
+}
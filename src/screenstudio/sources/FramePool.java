@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed ring of reusable frames.
+ *
+ * The writer calls acquire() to get a frame nobody is reading, fills it and
+ * calls publish(). Readers call retainLatest() and must call release() once
+ * they are done with the frame. A frame is never handed back to the writer
+ * while a reader still holds it.
+ *
+ * Frames can also keep a copy of their data in native memory, split in
+ * slices, so that it can be sent to a channel without another copy.
+ *
+ * @author patrick
+ */
+public class FramePool {
+
+    private final Frame[] mFrames;
+    private volatile Frame mLatest = null;
+    private int mNextIndex = 0;
+    private volatile long mSequence = 0;
+    private long mStarved = 0;
+
+    public FramePool(int width, int height, int imageType, int count) {
+        this(width, height, imageType, count, 0, null);
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @param imageType must be a byte based image type
+     * @param count
+     * @param bufferSize size of the native copy of the frames
+     * @param slices offset of each slice of the native copy, null for no
+     * native copy
+     */
+    public FramePool(int width, int height, int imageType, int count, int bufferSize, int[] slices) {
+        mFrames = new Frame[count];
+        for (int i = 0; i < count; i++) {
+            mFrames[i] = new Frame(new BufferedImage(width, height, imageType), bufferSize, slices);
+        }
+    }
+
+    /**
+     * Get a frame that is free for writing
+     *
+     * @return the frame or null if every frame is still in use
+     */
+    public Frame acquire() {
+        for (int i = 0; i < mFrames.length; i++) {
+            Frame f = mFrames[(mNextIndex + i) % mFrames.length];
+            if (f.mRefs.compareAndSet(0, 1)) {
+                mNextIndex = (mNextIndex + i + 1) % mFrames.length;
+                return f;
+            }
+        }
+        mStarved++;
+        return null;
+    }
+
+    /**
+     * Make a frame obtained from acquire() the latest frame. The reference
+     * held by the writer is transfered to the pool.
+     *
+     * @param f
+     */
+    public void publish(Frame f) {
+        f.mSequence = ++mSequence;
+        Frame old = mLatest;
+        mLatest = f;
+        if (old != null) {
+            old.release();
+        }
+    }
+
+    /**
+     * Change the presentation timestamp of the latest frame when it is shown
+     * again because nothing changed. Must be called by the writer only.
+     *
+     * @param pts
+     */
+    public void restampLatest(long pts) {
+        Frame f = mLatest;
+        if (f != null) {
+            f.mPTS = pts;
+        }
+    }
+
+    /**
+     * Give back a frame obtained from acquire() without publishing it
+     *
+     * @param f
+     */
+    public void discard(Frame f) {
+        f.release();
+    }
+
+    /**
+     * Get the latest published frame. The caller must release it.
+     *
+     * @return the latest frame or null if nothing was published yet
+     */
+    public Frame retainLatest() {
+        while (true) {
+            Frame f = mLatest;
+            if (f == null) {
+                return null;
+            }
+            int refs = f.mRefs.get();
+            if (refs > 0 && f.mRefs.compareAndSet(refs, refs + 1)) {
+                if (f == mLatest) {
+                    return f;
+                }
+                // Was recycled in between, try again...
+                f.release();
+            }
+        }
+    }
+
+    /**
+     * @return the number of frames published so far
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    /**
+     * @return how many times acquire() could not find a free frame
+     */
+    public long getStarvedCount() {
+        return mStarved;
+    }
+
+    public int getSize() {
+        return mFrames.length;
+    }
+
+    public static class Frame {
+
+        private final BufferedImage mImage;
+        private final byte[] mData;
+        private final ByteBuffer mBuffer;
+        private final ByteBuffer[] mSlices;
+        private final AtomicInteger mRefs = new AtomicInteger(0);
+        private long mSequence = 0;
+        private volatile long mPTS = 0;
+        private Graphics2D[] mGraphics = new Graphics2D[0];
+
+        private Frame(BufferedImage img, int bufferSize, int[] slices) {
+            mImage = img;
+            mData = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+            if (slices != null) {
+                mBuffer = ByteBuffer.allocateDirect(bufferSize);
+                mSlices = new ByteBuffer[slices.length];
+                for (int i = 0; i < slices.length; i++) {
+                    int end = i + 1 < slices.length ? slices[i + 1] : bufferSize;
+                    mBuffer.limit(end).position(slices[i]);
+                    mSlices[i] = mBuffer.slice();
+                }
+                mBuffer.clear();
+            } else {
+                mBuffer = null;
+                mSlices = null;
+            }
+        }
+
+        public BufferedImage getImage() {
+            return mImage;
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+
+        /**
+         * @return true if the frame has a native copy to send to the encoder
+         */
+        public boolean hasBuffer() {
+            return mBuffer != null;
+        }
+
+        /**
+         * Get a slice of the native copy to update it. The slice is cleared.
+         *
+         * @param index
+         * @return
+         */
+        public ByteBuffer getSlice(int index) {
+            mSlices[index].clear();
+            return mSlices[index];
+        }
+
+        /**
+         * Get all the slices of the native copy, rewound, for a gathering
+         * write. Only one thread at a time can read them.
+         *
+         * @return
+         */
+        public ByteBuffer[] getSlices() {
+            for (ByteBuffer b : mSlices) {
+                b.clear();
+            }
+            return mSlices;
+        }
+
+        /**
+         * @return a graphics context kept for the lifetime of the frame
+         */
+        public Graphics2D getGraphics() {
+            return getGraphics(0, null);
+        }
+
+        /**
+         * Get one of the graphics contexts kept for the lifetime of the frame.
+         * The clip is only applied when the context is created.
+         *
+         * @param index
+         * @param clip can be null
+         * @return
+         */
+        public Graphics2D getGraphics(int index, Rectangle clip) {
+            if (index >= mGraphics.length) {
+                mGraphics = Arrays.copyOf(mGraphics, index + 1);
+            }
+            if (mGraphics[index] == null) {
+                mGraphics[index] = mImage.createGraphics();
+                if (clip != null) {
+                    mGraphics[index].setClip(clip);
+                }
+            }
+            return mGraphics[index];
+        }
+
+        /**
+         * @return the publishing sequence number of this frame
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /**
+         * @return the presentation timestamp in ticks of the media clock
+         */
+        public long getPTS() {
+            return mPTS;
+        }
+
+        public void setPTS(long pts) {
+            mPTS = pts;
+        }
+
+        public void release() {
+            mRefs.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+/**
+ * Keeps track of runs of static sources that can be flattened once into a
+ * pre-blended layer instead of being drawn on every frame.
+ *
+ * A source is cacheable when it reports itself as static and nothing about
+ * its appearance (bounds, alpha, effect, frame sequence) changed since the
+ * previous frame. A layer is rebuilt when one of its members changes or when the
+ * cache is invalidated (view change).
+ *
+ * @author patrick
+ */
+public class LayerCache {
+
+    private final Rectangle mOutput;
+    private final IdentityHashMap<Source, State> mStates = new IdentityHashMap<>();
+    private final ArrayList<Layer> mLayers = new ArrayList<>();
+    private volatile long mVersion = 0;
+    private long mFrame = 0;
+    private Source[] mLast = new Source[0];
+    private int mLastCount = -1;
+    private long mLastVersion = -1;
+
+    public LayerCache(Rectangle output) {
+        mOutput = output;
+    }
+
+    /**
+     * Drop every cached layer on the next frame
+     */
+    public void invalidate() {
+        mVersion++;
+    }
+
+    /**
+     * Record the state of the visible sources. Must be called once per frame
+     * before querying the cache.
+     *
+     * @param visible
+     * @param count
+     * @return true if the output would differ from the previous frame
+     */
+    public boolean update(Source[] visible, int count) {
+        mFrame++;
+        boolean changed = count != mLastCount || mLastVersion != mVersion;
+        if (mLast.length < count) {
+            mLast = new Source[count];
+        }
+        for (int i = 0; i < count; i++) {
+            State st = mStates.get(visible[i]);
+            if (st == null) {
+                st = new State();
+                mStates.put(visible[i], st);
+            }
+            st.update(visible[i], mFrame);
+            changed |= st.mChangedAt == mFrame || mLast[i] != visible[i];
+            mLast[i] = visible[i];
+        }
+        mLastCount = count;
+        mLastVersion = mVersion;
+        return changed;
+    }
+
+    /**
+     * @param s
+     * @return true if the source can be part of a cached layer this frame
+     */
+    public boolean isCacheable(Source s) {
+        State st = mStates.get(s);
+        return s.isStatic() && st != null && st.mChangedAt < mFrame;
+    }
+
+    /**
+     * Find the layer for a run of cacheable sources
+     *
+     * @param runIndex index of the run in the current frame
+     * @param visible
+     * @param from first source of the run
+     * @param to source after the last one of the run
+     * @return the layer, check isValid() to know if it must be rebuilt
+     */
+    public Layer getLayer(int runIndex, Source[] visible, int from, int to) {
+        while (mLayers.size() <= runIndex) {
+            mLayers.add(new Layer());
+        }
+        Layer layer = mLayers.get(runIndex);
+        boolean bottom = from == 0;
+        boolean valid = layer.mVersion == mVersion && layer.mBottom == bottom && layer.mCount == to - from;
+        for (int i = from; valid && i < to; i++) {
+            valid = layer.mMembers[i - from] == visible[i] && mStates.get(visible[i]).mChangedAt < layer.mBuiltAt;
+        }
+        if (!valid) {
+            layer.prepare(visible, from, to, bottom, mOutput);
+        }
+        return layer;
+    }
+
+    /**
+     * Mark a layer as rebuilt for the current frame
+     *
+     * @param layer
+     */
+    public void built(Layer layer) {
+        layer.mBuiltAt = mFrame;
+        layer.mVersion = mVersion;
+    }
+
+    public static class Layer {
+
+        private Source[] mMembers = new Source[0];
+        private int mCount = -1;
+        private boolean mBottom = false;
+        private long mBuiltAt = 0;
+        private long mVersion = -1;
+        private BufferedImage mImage = null;
+        private byte[] mData = null;
+        private final Rectangle mArea = new Rectangle();
+
+        private void prepare(Source[] visible, int from, int to, boolean bottom, Rectangle output) {
+            mCount = to - from;
+            if (mMembers.length < mCount) {
+                mMembers = new Source[mCount];
+            }
+            System.arraycopy(visible, from, mMembers, 0, mCount);
+            mBottom = bottom;
+            mVersion = -1;
+            int imageType;
+            if (bottom) {
+                // Drawn first on a black canvas, the layer becomes the canvas
+                mArea.setBounds(output);
+                imageType = BufferedImage.TYPE_3BYTE_BGR;
+            } else {
+                mArea.setBounds(visible[from].getBounds());
+                for (int i = from + 1; i < to; i++) {
+                    mArea.add(visible[i].getBounds());
+                }
+                Rectangle.intersect(mArea, output, mArea);
+                imageType = BufferedImage.TYPE_4BYTE_ABGR;
+            }
+            if (mImage == null || mImage.getType() != imageType || mImage.getWidth() != Math.max(1, mArea.width) || mImage.getHeight() != Math.max(1, mArea.height)) {
+                mImage = new BufferedImage(Math.max(1, mArea.width), Math.max(1, mArea.height), imageType);
+                mData = ((DataBufferByte) mImage.getRaster().getDataBuffer()).getData();
+            } else {
+                java.util.Arrays.fill(mData, (byte) 0);
+            }
+        }
+
+        public boolean isValid() {
+            return mVersion != -1;
+        }
+
+        public boolean isBottom() {
+            return mBottom;
+        }
+
+        public BufferedImage getImage() {
+            return mImage;
+        }
+
+        public byte[] getData() {
+            return mData;
+        }
+
+        public Rectangle getArea() {
+            return mArea;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public Source getMember(int index) {
+            return mMembers[index];
+        }
+    }
+
+    private static class State {
+
+        private int mX, mY, mWidth, mHeight;
+        private float mAlpha;
+        private Object mEffect;
+        private Object mEffectChain;
+        private long mContent;
+        private long mChangedAt = Long.MAX_VALUE;
+
+        private void update(Source s, long frame) {
+            Rectangle r = s.getBounds();
+            float alpha = s.getAlpha().getAlpha();
+            long content = s.getFrameSequence();
+            if (mChangedAt == Long.MAX_VALUE || r.x != mX || r.y != mY || r.width != mWidth || r.height != mHeight
+                    || alpha != mAlpha || s.getEffect() != mEffect || s.getEffectChain() != mEffectChain || content != mContent) {
+                mX = r.x;
+                mY = r.y;
+                mWidth = r.width;
+                mHeight = r.height;
+                mAlpha = alpha;
+                mEffect = s.getEffect();
+                mEffectChain = s.getEffectChain();
+                mContent = content;
+                mChangedAt = frame;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Frame clock shared by the compositor and the encoder.
+ *
+ * Time is counted in ticks of 1/fps second from the start of the clock. The
+ * time of a tick is always computed from its index and never accumulated, so
+ * there is no drift even when the frame duration is not a whole number of
+ * milliseconds.
+ *
+ * @author patrick
+ */
+public class MediaClock {
+
+    private static final long NANOS = 1000000000L;
+    private final int mFPS;
+    private final long mOrigin;
+    private final AtomicLong mLate = new AtomicLong(0);
+    private final AtomicLong mDuplicated = new AtomicLong(0);
+
+    public MediaClock(int fps) {
+        mFPS = Math.max(1, fps);
+        mOrigin = System.nanoTime();
+    }
+
+    public int getFPS() {
+        return mFPS;
+    }
+
+    /**
+     * @param tick
+     * @return the time of a tick in nanoseconds from the start of the clock
+     */
+    public long getTime(long tick) {
+        return (tick / mFPS) * NANOS + ((tick % mFPS) * NANOS) / mFPS;
+    }
+
+    /**
+     * @return the elapsed time in nanoseconds
+     */
+    public long getElapsed() {
+        return System.nanoTime() - mOrigin;
+    }
+
+    /**
+     * @return the last tick that was reached
+     */
+    public long getTick() {
+        long elapsed = getElapsed();
+        return (elapsed / NANOS) * mFPS + ((elapsed % NANOS) * mFPS) / NANOS;
+    }
+
+    /**
+     * Sleep until the time of a tick plus an offset
+     *
+     * @param tick
+     * @param offset in nanoseconds, can be negative
+     * @return how late the caller already was in nanoseconds, 0 if it had to
+     * wait
+     */
+    public long waitFor(long tick, long offset) {
+        long deadline = mOrigin + getTime(tick) + offset;
+        long wait = deadline - System.nanoTime();
+        if (wait < 0) {
+            return -wait;
+        }
+        while (wait > 0) {
+            LockSupport.parkNanos(wait);
+            wait = deadline - System.nanoTime();
+        }
+        return 0;
+    }
+
+    /**
+     * Count ticks that were missed because a frame was composed or written
+     * too late
+     *
+     * @param count
+     */
+    public void addLateFrames(long count) {
+        mLate.addAndGet(count);
+    }
+
+    /**
+     * Count a frame that was output again because no newer frame was ready
+     */
+    public void addDuplicatedFrame() {
+        mDuplicated.incrementAndGet();
+    }
+
+    public long getLateFrames() {
+        return mLate.get();
+    }
+
+    public long getDuplicatedFrames() {
+        return mDuplicated.get();
+    }
+}
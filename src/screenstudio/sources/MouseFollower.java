@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.awt.Dimension;
+import java.awt.Point;
+import java.awt.Rectangle;
+
+/**
+ * Moves a capture window over a screen so that it follows the mouse.
+ *
+ * The window doesn't move while the pointer stays in its center area, then
+ * glides towards the pointer instead of jumping, and never leaves the
+ * screen.
+ *
+ * @author patrick
+ */
+public class MouseFollower {
+
+    /**
+     * Time for the window to cover 63% of the distance to the pointer
+     */
+    private static final double SMOOTHING = 0.15;
+    /**
+     * Part of the window, on each side, where the pointer makes it move
+     */
+    private static final double MARGIN = 0.2;
+
+    private final Rectangle mScreen;
+    private final Rectangle mWindow;
+    private final double mFactor;
+    private double mX;
+    private double mY;
+
+    /**
+     * @param screen the area of the screen on the display
+     * @param window the size of the capture window, reduced to the screen if
+     * larger
+     * @param fps how often update() is called
+     */
+    public MouseFollower(Rectangle screen, Dimension window, int fps) {
+        mScreen = new Rectangle(screen);
+        mWindow = new Rectangle(Math.min(window.width, screen.width), Math.min(window.height, screen.height));
+        mFactor = 1 - Math.exp(-1D / (Math.max(1, fps) * SMOOTHING));
+        mX = screen.x + (screen.width - mWindow.width) / 2;
+        mY = screen.y + (screen.height - mWindow.height) / 2;
+        mWindow.setLocation((int) mX, (int) mY);
+    }
+
+    /**
+     * @return the current window on the display
+     */
+    public Rectangle getWindow() {
+        return new Rectangle(mWindow);
+    }
+
+    /**
+     * Move the window one frame towards the pointer
+     *
+     * @param pointer the position of the mouse on the display, null if
+     * unknown
+     * @return the new window on the display
+     */
+    public Rectangle update(Point pointer) {
+        if (pointer != null) {
+            mX += mFactor * (target(pointer.x, mX, mWindow.width) - mX);
+            mY += mFactor * (target(pointer.y, mY, mWindow.height) - mY);
+            mX = Math.max(mScreen.x, Math.min(mScreen.x + mScreen.width - mWindow.width, mX));
+            mY = Math.max(mScreen.y, Math.min(mScreen.y + mScreen.height - mWindow.height, mY));
+            mWindow.setLocation((int) Math.round(mX), (int) Math.round(mY));
+        }
+        return getWindow();
+    }
+
+    /**
+     * Position for which the pointer is back in the center area, on one axis
+     */
+    private static double target(int pointer, double position, int size) {
+        double margin = size * MARGIN;
+        if (pointer < position + margin) {
+            return pointer - margin;
+        } else if (pointer > position + size - margin) {
+            return pointer - size + margin;
+        }
+        return position;
+    }
+}
@@ -173,6 +173,13 @@ public class Screen {
         }
     }
 
+    /**
+     * @return the id of the display without the capture offset
+     */
+    public String getDisplay() {
+        return id;
+    }
+
     /**
      * @param id the id to set
      */
@@ -213,6 +220,15 @@ public class Screen {
         return osName.startsWith("windows");
     }
 
+    /**
+     * Only x11grab and the X11 capture can move their window with the mouse
+     *
+     * @return true if a screen can follow the mouse on this system
+     */
+    public static boolean isFollowMouseSupported() {
+        return !isOSX() && !isWindows();
+    }
+
     private static ArrayList<Screen> getOSXDevices() throws IOException, InterruptedException {
         ArrayList<Screen> list = new ArrayList<>();
         String command = "./FFMPEG/ffmpeg-osx -list_devices true -f avfoundation -i dummy";
@@ -22,9 +22,11 @@ import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferByte;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import screenstudio.sources.effects.Effect;
+import screenstudio.sources.effects.EffectChain;
 import screenstudio.sources.transitions.Transition;
 import screenstudio.targets.Layout.SourceType;
 
@@ -79,14 +81,20 @@ public abstract class Source  {
     protected String mFontName = "Dialog";
     protected long mStartDisplayTime = 0;
     protected long mEndDisplayTime = 0;
+    protected MediaClock mClock = null;
     private final BufferedImage mImage;
     private final byte[] mBuffer;
+    private final AtomicLong mFrameSequence = new AtomicLong(0);
+    private long mImageSequence = -1;
     private Transition.NAMES mTransitionStart =Transition.NAMES.None; 
     private Transition.NAMES mTransitionStop =Transition.NAMES.None; 
     private ISourceEvents mListener = null;
     private boolean mRemoteDisplay = true;
     private Effect.eEffects mEffect = Effect.eEffects.None;
+    private EffectChain mEffectChain = EffectChain.NONE;
+    private final Effect mEffectOutput = new Effect();
     private String mID = "";
+    private volatile IOException mStartError = null;
 
     protected SourceType mType;
     private List<screenstudio.targets.Source.View> mViews;
@@ -104,6 +112,27 @@ public abstract class Source  {
     public Effect.eEffects getEffect(){
         return mEffect;
     }
+
+    /**
+     * @param chain effects applied after the effect
+     */
+    public void setEffectChain(EffectChain chain) {
+        mEffectChain = chain;
+    }
+
+    public EffectChain getEffectChain() {
+        return mEffectChain;
+    }
+
+    /**
+     * @return the image with the effect applied, in a buffer owned by the
+     * source and reused from frame to frame. It is only computed again when
+     * the frame or the effects change.
+     */
+    public BufferedImage getEffectImage() {
+        BufferedImage image = getImage();
+        return mEffectOutput.apply(mEffect, mEffectChain, image, mImageSequence);
+    }
     public void setRemoteDisplay(boolean show){
         mRemoteDisplay = show;
     }
@@ -117,6 +146,48 @@ public abstract class Source  {
     public boolean isRemoteDisplay(){
         return mRemoteDisplay;
     }
+
+    /**
+     * A static source always returns the same pixels as long as its frame
+     * sequence doesn't change. The compositor can flatten it in a cached
+     * layer.
+     *
+     * @return true if the source never changes by itself
+     */
+    public boolean isStatic() {
+        return false;
+    }
+
+    /**
+     * Must be called by the implementation each time new content is available
+     * for getData()
+     */
+    protected void newFrame() {
+        mFrameSequence.incrementAndGet();
+    }
+
+    /**
+     * Called by the compositor on every tick, before reading the frame
+     * sequence. Sources paced by the clock move to their next frame here,
+     * getFrameSequence() only reports it.
+     */
+    public void update() {
+    }
+
+    /**
+     * @return a number increased every time the source produces a new frame
+     */
+    public long getFrameSequence() {
+        return mFrameSequence.get();
+    }
+
+    /**
+     * @param sequence a value previously returned by getFrameSequence()
+     * @return true if a new frame was produced since
+     */
+    public boolean hasNewFrame(long sequence) {
+        return getFrameSequence() > sequence;
+    }
     protected Source(List<screenstudio.targets.Source.View> views,int delayTime, String id, int imageType) {
         mViews = views;
         mBounds = new Rectangle(views.get(0).X,views.get(0).Y,views.get(0).Width,views.get(0).Height);
@@ -174,17 +245,40 @@ public abstract class Source  {
         return mEndDisplayTime;
     }
 
+    /**
+     * @param clock the clock of the compositor showing the source
+     */
+    public void setClock(MediaClock clock) {
+        mClock = clock;
+    }
+
     public void start() {
         try {
+            mStartError = null;
             initStream();
             if (mListener != null) {
                 mListener.event(EVENTS.START);
             }
         } catch (IOException ex) {
+            mStartError = ex;
             Logger.getLogger(Source.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
 
+    /**
+     * @return the error that made the last start() fail or null
+     */
+    public IOException getStartError() {
+        return mStartError;
+    }
+
+    /**
+     * @return true once the source produced its first frame
+     */
+    public boolean isReady() {
+        return getFrameSequence() > 0;
+    }
+
     public void stop() {
         try {
             disposeStream();
@@ -197,10 +291,14 @@ public abstract class Source  {
     }
 
     public BufferedImage getImage() {
-        try {
-            getData(mBuffer);
-        } catch (IOException ex) {
-            Logger.getLogger(Source.class.getName()).log(Level.SEVERE, null, ex);
+        long sequence = getFrameSequence();
+        if (sequence != mImageSequence) {
+            try {
+                getData(mBuffer);
+                mImageSequence = sequence;
+            } catch (IOException ex) {
+                Logger.getLogger(Source.class.getName()).log(Level.SEVERE, null, ex);
+            }
         }
         return mImage;
     }
@@ -16,42 +16,37 @@
  */
 package screenstudio.sources;
 
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.List;
 import screenstudio.encoder.FFMpeg;
-import screenstudio.encoder.ProcessReader;
+import screenstudio.sources.blitter.Blitter;
+import screenstudio.sources.effects.ChromaKey;
 import screenstudio.targets.Layout.SourceType;
 
 /**
+ * A source reading the frames of an ffmpeg capture.
+ *
+ * The capture runs at the native size of the device and can be shared with
+ * other sources using the same device. Each source only crops and scales its
+ * area of the shared frame. A webcam in front of a green screen is keyed
+ * while copying its frame, to an image with transparency.
  *
  * @author patrick
  */
-public class SourceFFMpeg extends Source implements Runnable {
+public class SourceFFMpeg extends Source {
 
-    private FFMpeg mFFMpeg;
-    private Process mProcess;
-    private DataInputStream mInputData;
+    private FFMpegCapture mCapture;
     private final String mInput;
     private int mFPS;
-    private boolean mStopMe = false;
-    private byte[] dataBuffer;
-
-    @Override
-    public void run() {
-        while (!mStopMe) {
-            try {
-                byte[] buffer = new byte[dataBuffer.length];
-                mInputData.readFully(buffer);
-                dataBuffer = buffer;
-                //Thread.sleep(10);
-            } catch (IOException ex) {
-                //Logger.getLogger(SourceFFMpeg.class.getName()).log(Level.SEVERE, null, ex);
-                mStopMe = true;
-            } 
-        }
-    }
+    private final int mWidth;
+    private final int mHeight;
+    private Dimension mCaptureSize;
+    private Rectangle mCrop;
+    private ChromaKey mKey;
+    private byte[] mKeyInput;
 
     protected enum DEVICES {
         Desktop,
@@ -61,56 +56,144 @@ public class SourceFFMpeg extends Source implements Runnable {
     }
 
     public SourceFFMpeg(List<screenstudio.targets.Source.View> views, int fps, String input, SourceType type, String id) {
-        super( views, 0, id, BufferedImage.TYPE_3BYTE_BGR);
+        this(views, fps, input, type, id, BufferedImage.TYPE_3BYTE_BGR);
+    }
+
+    private SourceFFMpeg(List<screenstudio.targets.Source.View> views, int fps, String input, SourceType type, String id, int imageType) {
+        super( views, 0, id, imageType);
         mInput = input;
         mFPS = fps;
         mType = type;
+        mWidth = mBounds.width;
+        mHeight = mBounds.height;
+        mCaptureSize = new Dimension(mWidth, mHeight);
+    }
+
+    /**
+     * Capture frames of another size than the source and crop them
+     *
+     * @param size of the captured frames
+     * @param crop area of the captured frames shown by this source, null for
+     * the whole frame
+     */
+    protected void setCapture(Dimension size, Rectangle crop) {
+        mCaptureSize = size;
+        mCrop = crop;
     }
 
     public void setFPS(int fps) {
         mFPS = fps;
     }
 
+    /**
+     * Remove the green background of the frames
+     *
+     * @param key null to show the frames as captured
+     */
+    protected void setChromaKey(ChromaKey key) {
+        mKey = key;
+    }
+
+    @Override
+    public long getFrameSequence() {
+        FFMpegCapture capture = mCapture;
+        return capture == null ? 0 : capture.getSequence();
+    }
+
     @Override
     protected void getData(byte[] buffer) throws IOException {
-        System.arraycopy(dataBuffer, 0, buffer, 0, buffer.length);
+        FFMpegCapture capture = mCapture;
+        FramePool.Frame frame = capture == null ? null : capture.retainLatest();
+        if (frame != null) {
+            try {
+                boolean same = mCrop == null && mCaptureSize.width == mWidth && mCaptureSize.height == mHeight;
+                if (mKey != null) {
+                    byte[] input = frame.getData();
+                    if (!same) {
+                        // Scale first, only the pixels shown are keyed
+                        if (mKeyInput == null || mKeyInput.length != mWidth * mHeight * 3) {
+                            mKeyInput = new byte[mWidth * mHeight * 3];
+                        }
+                        Rectangle crop = mCrop == null ? new Rectangle(mCaptureSize) : mCrop;
+                        Blitter.crop(input, mCaptureSize.width, mCaptureSize.height, crop, mKeyInput, mWidth, mHeight, Blitter.Scaling.Bilinear);
+                        input = mKeyInput;
+                    }
+                    mKey.apply(input, buffer, mWidth, mHeight);
+                } else if (same) {
+                    System.arraycopy(frame.getData(), 0, buffer, 0, buffer.length);
+                } else {
+                    Rectangle crop = mCrop == null ? new Rectangle(mCaptureSize) : mCrop;
+                    Blitter.crop(frame.getData(), mCaptureSize.width, mCaptureSize.height, crop, buffer, mWidth, mHeight, Blitter.Scaling.Bilinear);
+                }
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    private String getCommand() {
+        return new FFMpeg(null).getBin() + " " + mInput + " " + "-s " + mCaptureSize.width + "x" + mCaptureSize.height + " -r " + mFPS + " -f rawvideo -pix_fmt bgr24 -";
     }
 
     @Override
     protected void initStream() throws IOException {
-        mStopMe = false;
-        mFFMpeg = new FFMpeg(null);
-        String command = mFFMpeg.getBin() + " " + mInput + " " + "-s " + mBounds.width + "x" + mBounds.height + " -r " + mFPS + " -f rawvideo -pix_fmt bgr24 -";
-        mProcess = Runtime.getRuntime().exec(command);
-        new Thread(new ProcessReader(mProcess.getErrorStream())).start();
-        System.out.println(command);
-        mInputData = new DataInputStream(mProcess.getInputStream());
-        dataBuffer = new byte[mBounds.width * mBounds.height * 3];
-        mInputData.readFully(dataBuffer);
-        new Thread(this).start();
+        String command = getCommand();
+        mCapture = SourcePool.getDefault().open(command, mCaptureSize.width, mCaptureSize.height);
     }
 
     @Override
     protected void disposeStream() throws IOException {
-        mStopMe = true;
-        mProcess.getOutputStream().write("q\n".getBytes());
-        try {
-            mProcess.getOutputStream().flush();
-            mProcess.getOutputStream().close();
-        } catch (IOException ex) {
-            //just in case the stream is already closed...
+        FFMpegCapture capture = mCapture;
+        mCapture = null;
+        if (capture != null) {
+            SourcePool.getDefault().release(capture.getCommand(), capture);
+        }
+        if (mKey != null) {
+            mKey.close();
         }
-        mInputData.close();
-        mProcess.destroy();
-        mProcess.destroyForcibly();
-        mProcess = null;
-        mInputData = null;
+        mKeyInput = null;
     }
 
+    /**
+     * Capture the screen at the size of the source, ffmpeg scales it
+     */
     public static SourceFFMpeg getDesktopInstance(Screen display,List<screenstudio.targets.Source.View> views , int fps) {
-        String input = " -f " + new FFMpeg(null).getDesktopFormat() + " -video_size " + display.getWidth() + "x" + display.getHeight() + " -i " + display.getId();
+        if (display.isFollowingMouse() && Screen.isFollowMouseSupported()) {
+            return getFollowMouseInstance(display, views, fps);
+        }
+        return newDesktopInstance(display, display.getSize(), views, fps);
+    }
+
+    /**
+     * Capture an area of the display containing the screen so that sources
+     * showing different parts of the same display can share the capture. The
+     * frames are captured at the size of the area and scaled for each source.
+     *
+     * @param display the screen shown by the source
+     * @param area the area captured, must contain the screen
+     * @param views
+     * @param fps
+     * @return
+     */
+    public static SourceFFMpeg getDesktopInstance(Screen display, Rectangle area, List<screenstudio.targets.Source.View> views, int fps) {
+        if (Screen.isOSX()) {
+            area = display.getSize();
+        } else if (display.isFollowingMouse() && Screen.isFollowMouseSupported()) {
+            return getFollowMouseInstance(display, views, fps);
+        }
+        SourceFFMpeg f = newDesktopInstance(display, area, views, fps);
+        Rectangle crop = new Rectangle(display.getSize());
+        crop.translate(-area.x, -area.y);
+        f.setCapture(area.getSize(), crop);
+        return f;
+    }
+
+    private static SourceFFMpeg newDesktopInstance(Screen display, Rectangle area, List<screenstudio.targets.Source.View> views, int fps) {
+        String input = " -f " + new FFMpeg(null).getDesktopFormat() + " -video_size " + area.width + "x" + area.height + " -i " + display.getDisplay() + "+" + area.x + "," + area.y;
         if (Screen.isWindows()) {
-            input = " -f " + new FFMpeg(null).getDesktopFormat() + " -video_size " + display.getWidth() + "x" + display.getHeight() + " -offset_x " + display.getSize().x + " -offset_y " + display.getSize().y + " " + " -i " + display.getId();
+            input = " -f " + new FFMpeg(null).getDesktopFormat() + " -video_size " + area.width + "x" + area.height + " -offset_x " + area.x + " -offset_y " + area.y + " " + " -i " + display.getId();
+        } else if (Screen.isOSX()) {
+            input = " -f " + new FFMpeg(null).getDesktopFormat() + " -video_size " + area.width + "x" + area.height + " -i " + display.getId();
         }
         SourceFFMpeg f = new SourceFFMpeg(views, fps, input, SourceType.Desktop, display.getLabel());
         f.mCaptureX = display.getSize().x;
@@ -118,18 +201,55 @@ public class SourceFFMpeg extends Source implements Runnable {
         return f;
     }
 
+    /**
+     * Let x11grab move a window of the size of the source with the mouse.
+     * The capture is not shared.
+     */
+    private static SourceFFMpeg getFollowMouseInstance(Screen display, List<screenstudio.targets.Source.View> views, int fps) {
+        Rectangle screen = display.getSize();
+        Dimension window = new Dimension(Math.min(views.get(0).Width, screen.width), Math.min(views.get(0).Height, screen.height));
+        String input = " -f " + new FFMpeg(null).getDesktopFormat() + " -follow_mouse centered -video_size " + window.width + "x" + window.height + " -i " + display.getId();
+        SourceFFMpeg f = new SourceFFMpeg(views, fps, input, SourceType.Desktop, display.getLabel());
+        f.mCaptureX = screen.x;
+        f.mCaptureY = screen.y;
+        f.setCapture(window, null);
+        return f;
+    }
+
     public static SourceFFMpeg getCustomInstance(screenstudio.targets.Source source,List<screenstudio.targets.Source.View> views , int fps) {
         String input = source.getSourceObject().toString();
         SourceFFMpeg f = new SourceFFMpeg(views, fps, input, SourceType.Custom, source.getID());
         return f;
     }
-    public static SourceFFMpeg getWebcamInstance(Webcam webcam,List<screenstudio.targets.Source.View> views , int fps) {
+    /**
+     * The webcam is opened at its width and height: the size of the source,
+     * or a size shared by all the sources using the webcam, the frames are
+     * then scaled for each source
+     *
+     * @param webcam
+     * @param views
+     * @param fps
+     * @param greenSensitivity of the chroma key removing the green screen
+     * behind the webcam, 0 to show the frames as captured
+     * @return
+     */
+    public static SourceFFMpeg getWebcamInstance(Webcam webcam,List<screenstudio.targets.Source.View> views , int fps, int greenSensitivity) {
         String inputFormat = " -video_size " + webcam.getWidth() + "x" + webcam.getHeight() + " -framerate " + fps;
         if (Screen.isWindows()){
             inputFormat = "";
         }
         String input = " -f " + new FFMpeg(null).getWebcamFormat() + inputFormat  + " -i " + webcam.getDevice();
         System.out.println(input);
-        return new SourceFFMpeg(views, fps, input, SourceType.Webcam, webcam.getDevice());
+        SourceFFMpeg f;
+        if (greenSensitivity > 0) {
+            f = new SourceFFMpeg(views, fps, input, SourceType.Webcam, webcam.getDevice(), BufferedImage.TYPE_4BYTE_ABGR);
+            f.setChromaKey(new ChromaKey(greenSensitivity, Compositor.getDefaultThreads()));
+        } else {
+            f = new SourceFFMpeg(views, fps, input, SourceType.Webcam, webcam.getDevice());
+        }
+        if (!Screen.isWindows()) {
+            f.setCapture(new Dimension(webcam.getWidth(), webcam.getHeight()), null);
+        }
+        return f;
     }
 }
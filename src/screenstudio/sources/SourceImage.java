@@ -75,6 +75,24 @@ public class SourceImage extends Source {
         return currentIndex;
     }
 
+    @Override
+    public boolean isStatic() {
+        // Animated GIF and looping slideshows are changing by themselves
+        return images != null && (images.length == 1 || mTimeDelay == 0);
+    }
+
+    @Override
+    public void update() {
+        if (images != null && mTimeDelay > 0 && mNextPicture <= System.currentTimeMillis()) {
+            currentIndex++;
+            if (currentIndex >= images.length) {
+                currentIndex = 0;
+            }
+            mNextPicture = System.currentTimeMillis() + mTimeDelay;
+            newFrame();
+        }
+    }
+
     public void setCurrentImageIndex(int index) {
         mTimeDelay = 0;
         if (index >= images.length) {
@@ -84,6 +102,7 @@ public class SourceImage extends Source {
         } else {
             currentIndex = index;
         }
+        newFrame();
     }
 
     public SourceImage(List<screenstudio.targets.Source.View> views, BufferedImage image, String id) {
@@ -97,10 +116,6 @@ public class SourceImage extends Source {
 
     @Override
     protected void getData(byte[] buffer) throws IOException {
-        if (mTimeDelay > 0 && mNextPicture <= System.currentTimeMillis()) {
-            currentIndex++;
-            mNextPicture = System.currentTimeMillis() + mTimeDelay;
-        }
         if (currentIndex >= images.length) {
             currentIndex = 0;
         }
@@ -127,6 +142,7 @@ public class SourceImage extends Source {
             images[0].createGraphics().drawImage(buffer.getScaledInstance(mBounds.width, mBounds.height, Image.SCALE_SMOOTH), 0, 0, null);
             data = ((DataBufferByte) images[0].getRaster().getDataBuffer()).getData();
         }
+        newFrame();
     }
 
     @Override
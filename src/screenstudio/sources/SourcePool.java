@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares the capture processes between the sources using the same device and
+ * keeps the ones of stopped sources running for a while so that the next
+ * recording using the same device starts instantly.
+ *
+ * Captures are keyed by their ffmpeg command, which contains the device, the
+ * capture area, the size and the frame rate. A capture opened by several
+ * sources is stopped or kept idle when the last of them releases it. Keeping
+ * idle captures is disabled (idle TTL of 0) by default.
+ *
+ * @author patrick
+ */
+public class SourcePool {
+
+    /**
+     * Keep idle captures until the pool is cleared
+     */
+    public static final long FOREVER = -1;
+    private static final SourcePool DEFAULT = new SourcePool();
+
+    private final HashMap<String, ArrayList<Idle>> mIdle = new HashMap<>();
+    private final HashMap<String, Shared> mShared = new HashMap<>();
+    private long mIdleTTL = 0;
+    private ScheduledExecutorService mTimer = null;
+    private long mHits = 0;
+    private long mMisses = 0;
+
+    public SourcePool() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::clear));
+    }
+
+    public static SourcePool getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param ms how long a capture is kept running once released, 0 to stop
+     * it immediately or FOREVER
+     */
+    public synchronized void setIdleTTL(long ms) {
+        mIdleTTL = ms;
+        if (ms == 0) {
+            clear();
+        }
+    }
+
+    public synchronized long getIdleTTL() {
+        return mIdleTTL;
+    }
+
+    /**
+     * Get a running capture released earlier with the same key
+     *
+     * @param key
+     * @return the capture or null if none is available
+     */
+    public synchronized FFMpegCapture acquire(String key) {
+        ArrayList<Idle> list = mIdle.get(key);
+        while (list != null && !list.isEmpty()) {
+            Idle idle = list.remove(list.size() - 1);
+            if (idle.mCapture.isAlive()) {
+                mHits++;
+                return idle.mCapture;
+            }
+            close(idle.mCapture);
+        }
+        mMisses++;
+        return null;
+    }
+
+    /**
+     * Get the capture running for the key, starting it if no other source is
+     * using it and no idle one is available. Sources started in parallel wait
+     * for the first one to start the process.
+     *
+     * @param key the ffmpeg command
+     * @param width of the frames produced by the command
+     * @param height of the frames produced by the command
+     * @return the running capture, to give back with release()
+     * @throws IOException if the capture could not be started
+     */
+    public FFMpegCapture open(String key, int width, int height) throws IOException {
+        Shared shared;
+        synchronized (this) {
+            shared = mShared.get(key);
+            if (shared == null || shared.mError != null || (shared.mCapture != null && !shared.mCapture.isAlive())) {
+                shared = new Shared();
+                shared.mCapture = acquire(key);
+                mShared.put(key, shared);
+            } else if (shared.mCapture != null) {
+                mHits++;
+            }
+            shared.mUsers++;
+        }
+        synchronized (shared) {
+            boolean started = false;
+            if (shared.mCapture == null && shared.mError == null) {
+                started = true;
+                FFMpegCapture capture = new FFMpegCapture(key, width, height);
+                try {
+                    capture.start();
+                    shared.mCapture = capture;
+                } catch (IOException ex) {
+                    close(capture);
+                    shared.mError = ex;
+                }
+            }
+            if (shared.mError != null) {
+                synchronized (this) {
+                    if (--shared.mUsers == 0 && mShared.get(key) == shared) {
+                        mShared.remove(key);
+                    }
+                }
+                throw shared.mError;
+            }
+            if (!started) {
+                System.out.println("Sharing capture: " + key);
+            }
+            return shared.mCapture;
+        }
+    }
+
+    /**
+     * @return the number of sources using each running capture, by key
+     */
+    public synchronized HashMap<String, Integer> getSharedCount() {
+        HashMap<String, Integer> count = new HashMap<>();
+        for (String key : mShared.keySet()) {
+            count.put(key, mShared.get(key).mUsers);
+        }
+        return count;
+    }
+
+    /**
+     * Give back a capture that is not used anymore. It is stopped when no
+     * other source is using it if the pool is disabled.
+     *
+     * @param key
+     * @param capture
+     */
+    public synchronized void release(String key, FFMpegCapture capture) {
+        Shared shared = mShared.get(key);
+        if (shared != null && shared.mCapture == capture) {
+            if (--shared.mUsers > 0) {
+                return;
+            }
+            mShared.remove(key);
+        }
+        if (mIdleTTL == 0 || !capture.isAlive()) {
+            close(capture);
+            return;
+        }
+        Idle idle = new Idle(capture);
+        mIdle.computeIfAbsent(key, k -> new ArrayList<>()).add(idle);
+        if (mIdleTTL > 0) {
+            if (mTimer == null) {
+                mTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "SourcePool");
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+            mTimer.schedule(() -> expire(key, idle), mIdleTTL, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop all the idle captures
+     */
+    public synchronized void clear() {
+        for (ArrayList<Idle> list : mIdle.values()) {
+            for (Idle idle : list) {
+                close(idle.mCapture);
+            }
+        }
+        mIdle.clear();
+    }
+
+    /**
+     * @return the number of captures kept running
+     */
+    public synchronized int getIdleCount() {
+        int count = 0;
+        for (ArrayList<Idle> list : mIdle.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    private synchronized void expire(String key, Idle idle) {
+        ArrayList<Idle> list = mIdle.get(key);
+        if (list != null && list.remove(idle)) {
+            System.out.println("Stopping idle capture " + key);
+            close(idle.mCapture);
+            if (list.isEmpty()) {
+                mIdle.remove(key);
+            }
+        }
+    }
+
+    private void close(FFMpegCapture capture) {
+        try {
+            capture.close();
+        } catch (IOException ex) {
+            Logger.getLogger(SourcePool.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * A capture used by one or more sources. The capture is null until the
+     * first source has started it, the error is set if it failed.
+     */
+    private static class Shared {
+
+        private volatile FFMpegCapture mCapture;
+        private volatile IOException mError;
+        private int mUsers = 0;
+    }
+
+    /**
+     * Wraps a released capture so that a timer only expires the release it
+     * was scheduled for
+     */
+    private static class Idle {
+
+        private final FFMpegCapture mCapture;
+
+        private Idle(FFMpegCapture capture) {
+            mCapture = capture;
+        }
+    }
+}
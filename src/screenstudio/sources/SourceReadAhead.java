@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import screenstudio.encoder.FFMpeg;
+
+/**
+ * A source decoded by ffmpeg ahead of time into a queue of frames.
+ *
+ * ffmpeg outputs raw BGR frames at the size of the source and at the output
+ * frame rate, so the index of a frame is its time. A thread of the
+ * implementation reads the frames into the queue, and the frame shown is
+ * picked from the compositor clock on every update(): a late decoder repeats
+ * the last frame instead of slowing down the output.
+ *
+ * @author patrick
+ */
+public abstract class SourceReadAhead extends Source implements Runnable {
+
+    protected static final long NANOS = 1000000000L;
+
+    protected final int mFPS;
+    protected final int mWidth;
+    protected final int mHeight;
+    protected volatile Process mProcess;
+    protected volatile boolean mStopMe = false;
+    private Thread mThread;
+    // Decoded frames waiting to be shown, and the buffers free to decode into
+    private ArrayBlockingQueue<Frame> mQueue;
+    private ArrayBlockingQueue<Frame> mFree;
+    private Frame mCurrent;
+    private long mNextIndex = 0;
+    private volatile long mDropped = 0;
+
+    private static class Frame {
+
+        private final byte[] mData;
+        private long mIndex;
+
+        private Frame(int size) {
+            mData = new byte[size];
+        }
+    }
+
+    /**
+     * @param views
+     * @param fps the output frame rate
+     * @param id
+     */
+    protected SourceReadAhead(List<screenstudio.targets.Source.View> views, int fps, String id) {
+        super(views, 0, id, BufferedImage.TYPE_3BYTE_BGR);
+        mFPS = Math.max(1, fps);
+        mWidth = mBounds.width;
+        mHeight = mBounds.height;
+    }
+
+    /**
+     * @return the arguments of ffmpeg before the output options
+     */
+    protected abstract List<String> getInputArguments();
+
+    /**
+     * @return output options added before the frame rate
+     */
+    protected List<String> getOutputArguments() {
+        return new ArrayList<>();
+    }
+
+    /**
+     * @param now time of the clock in nanoseconds
+     * @return the index of the frame due, -1 to keep the current frame
+     */
+    protected abstract long getPosition(long now);
+
+    /**
+     * Called when the frame due was not decoded yet
+     */
+    protected void onUnderrun() {
+    }
+
+    /**
+     * Called by the reading thread after each frame
+     */
+    protected void onFrame() {
+    }
+
+    protected List<String> getCommand() {
+        ArrayList<String> command = new ArrayList<>();
+        // The binary comes with its own options
+        command.addAll(Arrays.asList(new FFMpeg(null).getBin().trim().split("\\s+")));
+        command.addAll(getInputArguments());
+        command.add("-an");
+        command.add("-s");
+        command.add(mWidth + "x" + mHeight);
+        command.addAll(getOutputArguments());
+        command.add("-r");
+        command.add("" + mFPS);
+        command.add("-f");
+        command.add("rawvideo");
+        command.add("-pix_fmt");
+        command.add("bgr24");
+        command.add("-");
+        return command;
+    }
+
+    /**
+     * @return the size of a frame in bytes
+     */
+    protected int getFrameSize() {
+        return mWidth * mHeight * 3;
+    }
+
+    /**
+     * Allocate the frames and start the reading thread
+     *
+     * @param count number of frames, including the one shown
+     * @param name of the thread
+     */
+    protected void start(int count, String name) {
+        mQueue = new ArrayBlockingQueue<>(count);
+        mFree = new ArrayBlockingQueue<>(count);
+        for (int i = 0; i < count; i++) {
+            mFree.add(new Frame(getFrameSize()));
+        }
+        synchronized (this) {
+            mCurrent = null;
+        }
+        mNextIndex = 0;
+        mStopMe = false;
+        mThread = new Thread(this, name);
+        mThread.start();
+    }
+
+    /**
+     * Read frames into the queue until stopped or the end of the input
+     *
+     * @param in the output of ffmpeg
+     * @param dropOldest true to throw away the oldest frame when the queue is
+     * full, false to wait for a free frame
+     * @throws IOException at the end of the input or on an error
+     * @throws InterruptedException when stopped
+     */
+    protected void readFrames(DataInputStream in, boolean dropOldest) throws IOException, InterruptedException {
+        while (!mStopMe) {
+            Frame frame;
+            if (dropOldest) {
+                frame = mFree.poll();
+                if (frame == null) {
+                    // Not played fast enough
+                    frame = mQueue.poll();
+                    if (frame == null) {
+                        Thread.sleep(5);
+                        continue;
+                    }
+                    mDropped++;
+                }
+            } else {
+                // Waits while the read ahead is full
+                frame = mFree.take();
+            }
+            try {
+                in.readFully(frame.mData);
+            } catch (IOException ex) {
+                mFree.add(frame);
+                throw ex;
+            }
+            frame.mIndex = mNextIndex++;
+            mQueue.add(frame);
+            onFrame();
+        }
+    }
+
+    /**
+     * @return the index of the next frame read, the number of frames read
+     */
+    protected long getFramesRead() {
+        return mNextIndex;
+    }
+
+    /**
+     * @return the number of frames thrown away to keep the delay
+     */
+    public long getDroppedFrames() {
+        return mDropped;
+    }
+
+    /**
+     * @return the index of the oldest frame waiting, -1 if none
+     */
+    protected synchronized long getQueuedIndex() {
+        Frame first = mQueue == null ? null : mQueue.peek();
+        return first == null ? -1 : first.mIndex;
+    }
+
+    /**
+     * @return the number of frames waiting to be shown
+     */
+    protected synchronized int getQueuedFrames() {
+        return mQueue == null ? 0 : mQueue.size();
+    }
+
+    /**
+     * @return true if nothing was read since the end of the last input
+     */
+    protected synchronized boolean isDrained() {
+        return mQueue != null && mQueue.isEmpty();
+    }
+
+    /**
+     * @return the time of the clock in nanoseconds
+     */
+    protected long getNow() {
+        if (mClock == null) {
+            mClock = new MediaClock(mFPS);
+        }
+        return mClock.getElapsed();
+    }
+
+    /**
+     * Move to the last decoded frame due at the current time of the clock
+     */
+    @Override
+    public synchronized void update() {
+        if (mQueue == null) {
+            return;
+        }
+        if (mCurrent == null) {
+            // Something to show as soon as possible
+            mCurrent = mQueue.poll();
+            return;
+        }
+        long position = getPosition(getNow());
+        if (position < 0) {
+            return;
+        }
+        Frame next = mQueue.peek();
+        while (next != null && next.mIndex <= position) {
+            mFree.add(mCurrent);
+            mCurrent = mQueue.poll();
+            next = mQueue.peek();
+        }
+        if (next == null && position > mCurrent.mIndex) {
+            onUnderrun();
+        }
+    }
+
+    @Override
+    public synchronized long getFrameSequence() {
+        return mCurrent == null ? 0 : mCurrent.mIndex + 1;
+    }
+
+    /**
+     * @return true once a frame was decoded, shown from the next update()
+     */
+    @Override
+    public synchronized boolean isReady() {
+        return mCurrent != null || (mQueue != null && !mQueue.isEmpty());
+    }
+
+    /**
+     * @return true if a frame is shown
+     */
+    protected synchronized boolean hasCurrent() {
+        return mCurrent != null;
+    }
+
+    @Override
+    protected synchronized void getData(byte[] buffer) throws IOException {
+        if (mCurrent != null) {
+            System.arraycopy(mCurrent.mData, 0, buffer, 0, buffer.length);
+        }
+    }
+
+    @Override
+    protected void disposeStream() throws IOException {
+        mStopMe = true;
+        Process process = mProcess;
+        mProcess = null;
+        if (process != null) {
+            process.getInputStream().close();
+            process.destroyForcibly();
+        }
+        Thread thread = mThread;
+        mThread = null;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            mQueue = null;
+            mFree = null;
+            mCurrent = null;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import screenstudio.encoder.ProcessReader;
+import screenstudio.targets.Layout.SourceType;
+
+/**
+ * A source showing a remote feed (rtmp, srt, http...) decoded by ffmpeg.
+ *
+ * ffmpeg outputs the stream at a constant frame rate. The frames go through a
+ * jitter buffer: playback starts once the buffer holds its delay worth of
+ * frames, and the frame shown is then picked from the compositor clock. When
+ * the buffer runs dry the last good frame stays on screen until the buffer is
+ * full again.
+ *
+ * The connection is handled by its own thread, and restarted after a delay
+ * when the stream ends or stalls, so the compositor never waits on the
+ * network. StreamBenchmark plays a stream served by a local ffmpeg.
+ *
+ * @author patrick
+ */
+public class SourceStream extends SourceReadAhead {
+
+    /**
+     * The buffer never takes more than this amount of memory
+     */
+    private static final long BUFFER_BYTES = 64 * 1024 * 1024;
+    /**
+     * Time without a frame before the connection is considered lost, in
+     * milliseconds
+     */
+    private static final long TIMEOUT = 5000;
+    /**
+     * Delays before reconnecting, in milliseconds
+     */
+    private static final long RETRY_MIN = 500;
+    private static final long RETRY_MAX = 8000;
+
+    private final String mURL;
+    private long mBuffer = 500;
+    private int mBufferFrames;
+    private volatile long mLastFrame;
+    private boolean mPlaying = false;
+    private boolean mBuffering = true;
+    private long mAnchorTime;
+    private long mAnchorIndex;
+    private volatile long mReconnects = 0;
+    private long mUnderruns = 0;
+
+    /**
+     * @param views
+     * @param url the address of the stream, or any input ffmpeg can read
+     * @param fps the output frame rate
+     */
+    public SourceStream(List<screenstudio.targets.Source.View> views, String url, int fps) {
+        super(views, fps, url);
+        mURL = url;
+        mType = SourceType.Stream;
+    }
+
+    /**
+     * @param ms the delay of the jitter buffer in milliseconds
+     */
+    public void setBuffer(long ms) {
+        mBuffer = Math.max(0, ms);
+    }
+
+    public long getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return the number of times the connection was restarted
+     */
+    public long getReconnects() {
+        return mReconnects;
+    }
+
+    /**
+     * @return the number of times the buffer ran dry
+     */
+    public synchronized long getUnderruns() {
+        return mUnderruns;
+    }
+
+    @Override
+    protected List<String> getInputArguments() {
+        return new ArrayList<>(Arrays.asList("-fflags", "nobuffer", "-i", mURL));
+    }
+
+    @Override
+    protected List<String> getOutputArguments() {
+        // The index of a frame is its timestamp in the stream
+        return new ArrayList<>(Arrays.asList("-vsync", "cfr"));
+    }
+
+    @Override
+    protected void initStream() throws IOException {
+        long size = getFrameSize();
+        mBufferFrames = (int) Math.max(1, Math.min(mBuffer * mFPS / 1000, BUFFER_BYTES / size / 2));
+        synchronized (this) {
+            mPlaying = false;
+            mBuffering = true;
+        }
+        // Room for twice the delay, the frame shown and the one being read.
+        // Connecting can take a while, it is done by the stream thread
+        start(mBufferFrames * 2 + 2, "SourceStream " + mURL);
+    }
+
+    @Override
+    public void run() {
+        long retry = RETRY_MIN;
+        while (!mStopMe) {
+            Process process;
+            try {
+                List<String> command = getCommand();
+                System.out.println(String.join(" ", command));
+                process = new ProcessBuilder(command).start();
+            } catch (IOException ex) {
+                System.out.println("Stream " + mURL + ": " + ex.getMessage());
+                retry = waitRetry(retry);
+                continue;
+            }
+            mProcess = process;
+            if (mStopMe) {
+                // Stopped while connecting
+                process.destroyForcibly();
+                break;
+            }
+            new Thread(new ProcessReader(process.getErrorStream())).start();
+            mLastFrame = System.currentTimeMillis();
+            Thread watchdog = new Thread(() -> watch(process), "SourceStream watchdog " + mURL);
+            watchdog.start();
+            long read = getFramesRead();
+            try {
+                // Not played fast enough: drop the oldest frame to keep the
+                // delay
+                readFrames(new DataInputStream(process.getInputStream()), true);
+            } catch (IOException ex) {
+                if (!mStopMe) {
+                    System.out.println("Stream " + mURL + " lost, reconnecting");
+                }
+            } catch (InterruptedException ex) {
+                mStopMe = true;
+            }
+            mProcess = null;
+            process.destroyForcibly();
+            watchdog.interrupt();
+            if (getFramesRead() > read) {
+                retry = RETRY_MIN;
+            }
+            if (!mStopMe) {
+                mReconnects++;
+                retry = waitRetry(retry);
+            }
+        }
+    }
+
+    @Override
+    protected void onFrame() {
+        mLastFrame = System.currentTimeMillis();
+    }
+
+    /**
+     * Kill ffmpeg when it stops producing frames, so that the stream thread
+     * can reconnect
+     */
+    private void watch(Process process) {
+        while (!mStopMe && process.isAlive()) {
+            if (System.currentTimeMillis() - mLastFrame > TIMEOUT) {
+                System.out.println("Stream " + mURL + " timed out");
+                process.destroyForcibly();
+                return;
+            }
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param retry
+     * @return the next delay
+     */
+    private long waitRetry(long retry) {
+        try {
+            Thread.sleep(retry);
+        } catch (InterruptedException ex) {
+            mStopMe = true;
+        }
+        return Math.min(retry * 2, RETRY_MAX);
+    }
+
+    @Override
+    protected long getPosition(long now) {
+        if (!mPlaying) {
+            return -1;
+        }
+        if (mBuffering) {
+            long first = getQueuedIndex();
+            if (first < 0 || getQueuedFrames() < mBufferFrames) {
+                return -1;
+            }
+            // Play the oldest frame now, the buffer absorbs the jitter
+            mBuffering = false;
+            mAnchorTime = now;
+            mAnchorIndex = first;
+        }
+        return mAnchorIndex + ((now - mAnchorTime) * mFPS) / NANOS;
+    }
+
+    @Override
+    protected void onUnderrun() {
+        // Nothing left: hold the last good frame and buffer again
+        mBuffering = true;
+        mUnderruns++;
+    }
+
+    @Override
+    public BufferedImage getImage() {
+        synchronized (this) {
+            mPlaying = true;
+        }
+        return super.getImage();
+    }
+}
@@ -52,7 +52,7 @@ public class SourceText extends Source implements Runnable {
     private final byte[] mData;
     private int mBackgroundArea;
     private Font mFont;
-    private byte[] mBuffer;
+    private final byte[] mBuffer;
     private boolean mScrollVertical = false;
     private boolean mScrollHorizontal = false;
     private boolean mTypeWriterMode = false;
@@ -94,7 +94,9 @@ public class SourceText extends Source implements Runnable {
 
     @Override
     protected void getData(byte[] buffer) throws IOException {
-        System.arraycopy(mBuffer, 0, buffer, 0, buffer.length);
+        synchronized (mBuffer) {
+            System.arraycopy(mBuffer, 0, buffer, 0, buffer.length);
+        }
     }
 
     @Override
@@ -138,7 +140,8 @@ public class SourceText extends Source implements Runnable {
         boolean changeLineIndex = false;
         long lastIndexTime = System.currentTimeMillis();
         mLastLineTime = System.currentTimeMillis() + 5000;
-
+        // The first frame is always sent, even if it is blank
+        boolean first = true;
         while (!mStopMe) {
             Graphics2D g = mImage.createGraphics();
             g.setFont(mFont);
@@ -250,8 +253,13 @@ public class SourceText extends Source implements Runnable {
                     xRelative = mImage.getWidth();
                 }
             }
-            mBuffer = new byte[mData.length];
-            System.arraycopy(mData, 0, mBuffer, 0, mBuffer.length);
+            if (first || !java.util.Arrays.equals(mData, mBuffer)) {
+                synchronized (mBuffer) {
+                    System.arraycopy(mData, 0, mBuffer, 0, mBuffer.length);
+                }
+                first = false;
+                newFrame();
+            }
             g.dispose();
             try {
                 Thread.sleep(100);
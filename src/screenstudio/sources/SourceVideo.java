@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.awt.image.BufferedImage;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import screenstudio.encoder.ProcessReader;
+import screenstudio.targets.Layout.SourceType;
+
+/**
+ * A source playing a video file decoded by ffmpeg.
+ *
+ * ffmpeg decodes into a small queue of frames read ahead, and blocks when the
+ * queue is full. Playback keeps its pace whatever the speed of the decoder.
+ *
+ * Playback starts when the source is first drawn.
+ *
+ * @author patrick
+ */
+public class SourceVideo extends SourceReadAhead {
+
+    /**
+     * Frames read ahead: half a second, within this amount of memory
+     */
+    private static final long READAHEAD_BYTES = 64 * 1024 * 1024;
+
+    private final String mInput;
+    private boolean mLoop = false;
+    private long mOffset = 0;
+    private volatile boolean mEnded = false;
+    private long mPlayStart = -1;
+    private long mPausedAt = -1;
+    private long mPausedTime = 0;
+
+    /**
+     * @param views
+     * @param input the file or the url to play
+     * @param fps the output frame rate
+     * @param id
+     */
+    public SourceVideo(List<screenstudio.targets.Source.View> views, String input, int fps, String id) {
+        super(views, fps, id);
+        mInput = input;
+        mType = SourceType.Video;
+    }
+
+    /**
+     * @param value true to start over at the end of the file
+     */
+    public void setLoop(boolean value) {
+        mLoop = value;
+    }
+
+    public boolean isLoop() {
+        return mLoop;
+    }
+
+    /**
+     * @param value where to start in the file, in milliseconds
+     */
+    public void setOffset(long value) {
+        mOffset = Math.max(0, value);
+    }
+
+    public long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Freeze the current frame, the file doesn't advance until resume()
+     */
+    public synchronized void pause() {
+        if (mPausedAt < 0) {
+            mPausedAt = getNow();
+        }
+    }
+
+    public synchronized void resume() {
+        if (mPausedAt >= 0) {
+            if (mPlayStart >= 0) {
+                mPausedTime += getNow() - mPausedAt;
+            }
+            mPausedAt = -1;
+        }
+    }
+
+    public synchronized boolean isPaused() {
+        return mPausedAt >= 0;
+    }
+
+    /**
+     * @return true once the last frame of a file that doesn't loop was shown
+     */
+    public synchronized boolean isEnded() {
+        return mEnded && isDrained();
+    }
+
+    @Override
+    protected List<String> getInputArguments() {
+        ArrayList<String> args = new ArrayList<>();
+        if (mOffset > 0) {
+            args.add("-ss");
+            args.add(String.format(Locale.US, "%.3f", mOffset / 1000D));
+        }
+        if (mLoop) {
+            args.add("-stream_loop");
+            args.add("-1");
+        }
+        args.add("-i");
+        args.add(mInput);
+        return args;
+    }
+
+    /**
+     * @return the number of frames read ahead
+     */
+    protected int getReadAhead() {
+        long size = getFrameSize();
+        return (int) Math.max(2, Math.min(mFPS / 2, READAHEAD_BYTES / size));
+    }
+
+    @Override
+    protected void initStream() throws IOException {
+        synchronized (this) {
+            mPlayStart = -1;
+            mPausedTime = 0;
+        }
+        mEnded = false;
+        List<String> command = getCommand();
+        System.out.println(String.join(" ", command));
+        mProcess = new ProcessBuilder(command).start();
+        new Thread(new ProcessReader(mProcess.getErrorStream())).start();
+        // One more frame for the one being shown
+        start(getReadAhead() + 1, "SourceVideo " + getID());
+    }
+
+    @Override
+    public void run() {
+        Process process = mProcess;
+        if (process == null) {
+            return;
+        }
+        try {
+            readFrames(new DataInputStream(process.getInputStream()), false);
+        } catch (EOFException ex) {
+            mEnded = true;
+        } catch (IOException ex) {
+            if (!mStopMe) {
+                System.out.println("Video " + getID() + " stopped: " + ex.getMessage());
+                mEnded = true;
+            }
+        } catch (InterruptedException ex) {
+            // Stopped
+        }
+    }
+
+    @Override
+    protected long getPosition(long now) {
+        if (mPlayStart < 0) {
+            return -1;
+        }
+        if (mPausedAt >= 0) {
+            now = mPausedAt;
+        }
+        return ((now - mPlayStart - mPausedTime) * mFPS) / NANOS;
+    }
+
+    @Override
+    public BufferedImage getImage() {
+        synchronized (this) {
+            if (mPlayStart < 0 && hasCurrent()) {
+                mPlayStart = getNow();
+                if (mPausedAt >= 0) {
+                    mPausedAt = mPlayStart;
+                }
+            }
+        }
+        return super.getImage();
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import screenstudio.sources.blitter.Blitter;
+import screenstudio.sources.x11.X11Capture;
+import screenstudio.sources.x11.X11Damage;
+import screenstudio.targets.Layout.SourceType;
+
+/**
+ * Desktop source grabbing the screen in process with the MIT-SHM extension
+ * instead of running ffmpeg x11grab.
+ *
+ * Used on Linux when the display supports it, see isSupported(). The grab
+ * runs in its own thread at the source frame rate. When the screen follows
+ * the mouse, only a window of the size of the source is grabbed.
+ *
+ * @author patrick
+ */
+public class SourceX11 extends Source implements Runnable {
+
+    private static boolean mEnabled = true;
+    private static boolean mDamage = false;
+    protected final Screen mScreen;
+    private final int mWidth;
+    private final int mHeight;
+    protected int mFPS;
+    protected X11Capture mCapture;
+    private volatile MouseFollower mFollower;
+    private FramePool mFrames;
+    private Thread mThread;
+    protected volatile boolean mStopMe = false;
+
+    public SourceX11(Screen display, List<screenstudio.targets.Source.View> views, int fps) {
+        super(views, 0, display.getLabel(), BufferedImage.TYPE_3BYTE_BGR);
+        mScreen = display;
+        mFPS = fps;
+        mType = SourceType.Desktop;
+        mWidth = mBounds.width;
+        mHeight = mBounds.height;
+        mCaptureX = display.getSize().x;
+        mCaptureY = display.getSize().y;
+    }
+
+    /**
+     * @param value false to always capture the desktop with ffmpeg
+     */
+    public static void setEnabled(boolean value) {
+        mEnabled = value;
+    }
+
+    /**
+     * @param value true to only grab the parts of the screen that changed
+     * when XDamage is available
+     */
+    public static void setDamage(boolean value) {
+        mDamage = value;
+    }
+
+    /**
+     * @param display
+     * @param views
+     * @param fps
+     * @return a damage driven source if enabled and available
+     */
+    public static SourceX11 getInstance(Screen display, List<screenstudio.targets.Source.View> views, int fps) {
+        if (mDamage && !display.isFollowingMouse() && X11Damage.isAvailable()) {
+            return new SourceX11Damage(display, views, fps);
+        }
+        return new SourceX11(display, views, fps);
+    }
+
+    /**
+     * @param display
+     * @return true if the display can be grabbed with MIT-SHM
+     */
+    public static boolean isSupported(Screen display) {
+        return mEnabled && !Screen.isOSX() && !Screen.isWindows() && X11Capture.isSupported(display.getDisplay());
+    }
+
+    public void setFPS(int fps) {
+        mFPS = fps;
+    }
+
+    @Override
+    public long getFrameSequence() {
+        FramePool frames = mFrames;
+        return frames == null ? 0 : frames.getSequence();
+    }
+
+    @Override
+    protected void getData(byte[] buffer) throws IOException {
+        FramePool frames = mFrames;
+        FramePool.Frame frame = frames == null ? null : frames.retainLatest();
+        if (frame != null) {
+            try {
+                copy(frame.getData(), buffer);
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+    /**
+     * Copy a grabbed frame to the source, scaling it to the view if needed
+     *
+     * @param frame the area of the screen
+     * @param buffer the data of the source
+     */
+    protected void copy(byte[] frame, byte[] buffer) {
+        Rectangle area = getCaptureArea();
+        if (area.width == mWidth && area.height == mHeight) {
+            System.arraycopy(frame, 0, buffer, 0, buffer.length);
+        } else {
+            Blitter.crop(frame, area.width, area.height, new Rectangle(area.getSize()), buffer, mWidth, mHeight, Blitter.Scaling.Bilinear);
+        }
+    }
+
+    /**
+     * @return the area grabbed on the display: the screen, or a window of
+     * the size of the source moving with the mouse
+     */
+    protected Rectangle getCaptureArea() {
+        MouseFollower follower = mFollower;
+        return follower == null ? mScreen.getSize() : follower.getWindow();
+    }
+
+    @Override
+    protected void initStream() throws IOException {
+        mFollower = null;
+        if (mScreen.isFollowingMouse()) {
+            mFollower = new MouseFollower(mScreen.getSize(), new Dimension(mWidth, mHeight), mFPS);
+        }
+        Rectangle area = getCaptureArea();
+        X11Capture capture = new X11Capture(mScreen.getDisplay(), area);
+        try {
+            capture.open();
+            mCapture = capture;
+            open();
+        } catch (IOException ex) {
+            capture.close();
+            mCapture = null;
+            throw ex;
+        }
+        mStopMe = false;
+        // The grab thread owns the display connection from now on
+        mThread = new Thread(this, "SourceX11 " + mScreen.getLabel());
+        mThread.start();
+    }
+
+    /**
+     * Prepare the grab once the capture is open, before the grab thread
+     * starts
+     *
+     * @throws IOException
+     */
+    protected void open() throws IOException {
+        Rectangle area = getCaptureArea();
+        mFrames = new FramePool(area.width, area.height, BufferedImage.TYPE_3BYTE_BGR, 3);
+    }
+
+    @Override
+    public void run() {
+        MediaClock clock = new MediaClock(mFPS);
+        long tick = 0;
+        while (!mStopMe) {
+            FramePool.Frame frame = mFrames.acquire();
+            if (frame != null) {
+                if (mFollower != null) {
+                    // Same capture, only the grabbed area moves
+                    Rectangle window = mFollower.update(mCapture.getPointer());
+                    mCapture.setLocation(window.x, window.y);
+                }
+                if (mCapture.grab(frame.getData())) {
+                    mFrames.publish(frame);
+                } else {
+                    mFrames.discard(frame);
+                }
+            }
+            tick = Math.max(tick + 1, clock.getTick() + 1);
+            clock.waitFor(tick, 0);
+        }
+        close();
+    }
+
+    /**
+     * Release the capture, called by the grab thread when it stops
+     */
+    protected void close() {
+        mCapture.close();
+        mCapture = null;
+    }
+
+    @Override
+    protected void disposeStream() throws IOException {
+        mStopMe = true;
+        Thread thread = mThread;
+        mThread = null;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
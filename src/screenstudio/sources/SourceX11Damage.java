@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.List;
+import screenstudio.sources.x11.X11Damage;
+
+/**
+ * Desktop source that only grabs the parts of the screen reported as changed
+ * by the XDamage extension.
+ *
+ * The screen is kept in a persistent frame, updated rectangle by rectangle.
+ * The frame sequence only increases when something changed, so an idle
+ * screen costs nothing downstream either. Falls back to full grabs if the
+ * server doesn't support XDamage.
+ *
+ * @author patrick
+ */
+public class SourceX11Damage extends SourceX11 {
+
+    private X11Damage mDamage;
+    // Screen without the pointer, only used by the grab thread
+    private byte[] mClean;
+    // Screen with the pointer, read by getData()
+    private byte[] mFrame;
+    private final Object mLock = new Object();
+    private volatile long mSequence = 0;
+    private long mGrabbedPixels = 0;
+
+    public SourceX11Damage(Screen display, List<screenstudio.targets.Source.View> views, int fps) {
+        super(display, views, fps);
+    }
+
+    @Override
+    protected void open() throws IOException {
+        X11Damage damage = new X11Damage(mCapture);
+        try {
+            damage.open();
+        } catch (IOException ex) {
+            System.out.println("XDamage not available, grabbing the whole screen: " + ex.getMessage());
+            damage.close();
+            super.open();
+            return;
+        }
+        Rectangle area = new Rectangle(mScreen.getSize().getSize());
+        mClean = new byte[area.width * area.height * 3];
+        mCapture.grab(mClean, area);
+        mCapture.updatePointer();
+        mFrame = mClean.clone();
+        mCapture.drawPointer(mFrame);
+        mDamage = damage;
+        mSequence = 1;
+    }
+
+    @Override
+    public long getFrameSequence() {
+        return mDamage == null ? super.getFrameSequence() : mSequence;
+    }
+
+    @Override
+    protected void getData(byte[] buffer) throws IOException {
+        if (mDamage == null) {
+            super.getData(buffer);
+            return;
+        }
+        synchronized (mLock) {
+            copy(mFrame, buffer);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (mDamage == null) {
+            super.run();
+            return;
+        }
+        MediaClock clock = new MediaClock(mFPS);
+        Rectangle area = new Rectangle(mScreen.getSize().getSize());
+        long tick = 0;
+        while (!mStopMe) {
+            List<Rectangle> damaged = mDamage.poll();
+            Rectangle oldPointer = mCapture.getPointerBounds();
+            boolean moved = mCapture.updatePointer();
+            for (Rectangle r : damaged) {
+                if (mCapture.grab(mClean, r)) {
+                    mGrabbedPixels += r.width * r.height;
+                }
+            }
+            if (!damaged.isEmpty() || moved) {
+                // Restore what was under the pointer and draw it again
+                oldPointer.translate(-mCaptureX, -mCaptureY);
+                damaged.add(oldPointer.intersection(area));
+                Rectangle newPointer = mCapture.getPointerBounds();
+                newPointer.translate(-mCaptureX, -mCaptureY);
+                damaged.add(newPointer.intersection(area));
+                synchronized (mLock) {
+                    for (Rectangle r : damaged) {
+                        restore(r, area.width);
+                    }
+                    mCapture.drawPointer(mFrame);
+                }
+                mSequence++;
+            }
+            tick = Math.max(tick + 1, clock.getTick() + 1);
+            clock.waitFor(tick, 0);
+        }
+        close();
+    }
+
+    /**
+     * Copy a rectangle of the clean screen to the frame
+     */
+    private void restore(Rectangle r, int width) {
+        if (r.isEmpty()) {
+            return;
+        }
+        for (int y = r.y; y < r.y + r.height; y++) {
+            int offset = (y * width + r.x) * 3;
+            System.arraycopy(mClean, offset, mFrame, offset, r.width * 3);
+        }
+    }
+
+    @Override
+    protected void close() {
+        if (mDamage != null) {
+            mDamage.close();
+        }
+        super.close();
+    }
+
+    /**
+     * @return the number of pixels read from the server since the start
+     */
+    public long getGrabbedPixels() {
+        return mGrabbedPixels;
+    }
+}
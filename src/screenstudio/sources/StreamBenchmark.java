@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import screenstudio.encoder.FFMpeg;
+
+/**
+ * Plays a stream served by a local ffmpeg in a SourceStream, driven by a
+ * clock like the compositor does. Halfway the server is killed and started
+ * again to check the reconnection. Prints the time to the first frame, the
+ * frames shown against the ticks of the clock, and the counters of the
+ * source.
+ *
+ * java -cp build/classes screenstudio.sources.StreamBenchmark [seconds]
+ * [port]
+ *
+ * The benchmarks are left out of the jar (dist.archive.excludes).
+ *
+ * @author patrick
+ */
+public class StreamBenchmark {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+    private static final int FPS = 30;
+    /**
+     * Time the server is down, in milliseconds
+     */
+    private static final long OUTAGE = 2000;
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 18080;
+        String url = "http://127.0.0.1:" + port;
+        Process server = serve(url);
+        screenstudio.targets.Source.View view = new screenstudio.targets.Source.View();
+        view.Width = WIDTH;
+        view.Height = HEIGHT;
+        SourceStream stream = new SourceStream(Arrays.asList(view), url, FPS);
+        MediaClock clock = new MediaClock(FPS);
+        stream.setClock(clock);
+        stream.start();
+        long ticks = (long) seconds * FPS;
+        long first = -1;
+        long shown = 0;
+        long last = 0;
+        boolean restarted = false;
+        for (long tick = clock.getTick(); tick < ticks; tick++) {
+            clock.waitFor(tick, 0);
+            stream.update();
+            if (stream.isReady()) {
+                stream.getImage();
+                long sequence = stream.getFrameSequence();
+                if (first < 0 && sequence > 0) {
+                    first = clock.getElapsed() / 1000000;
+                }
+                if (sequence != last) {
+                    shown++;
+                    last = sequence;
+                }
+            }
+            if (server != null && tick == ticks / 2) {
+                System.out.println("Stopping the server for " + OUTAGE + " ms");
+                server.destroyForcibly();
+                server = null;
+            } else if (server == null && !restarted && tick == ticks / 2 + OUTAGE * FPS / 1000) {
+                server = serve(url);
+                restarted = true;
+            }
+        }
+        stream.stop();
+        if (server != null) {
+            server.destroyForcibly();
+        }
+        System.out.println(String.format("First frame after %d ms", first));
+        System.out.println(String.format("Frames shown: %d of %d ticks (%.1f%%)", shown, ticks, shown * 100D / ticks));
+        System.out.println(String.format("Underruns: %d, reconnects: %d, dropped: %d", stream.getUnderruns(), stream.getReconnects(), stream.getDroppedFrames()));
+    }
+
+    /**
+     * @return ffmpeg serving a test pattern in real time to one client
+     */
+    private static Process serve(String url) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.addAll(Arrays.asList(new FFMpeg(null).getBin().trim().split("\\s+")));
+        command.addAll(Arrays.asList("-re", "-f", "lavfi", "-i", "testsrc=size=" + WIDTH + "x" + HEIGHT + ":rate=" + FPS,
+                "-f", "mpegts", "-listen", "1", url));
+        System.out.println(String.join(" ", command));
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs a task over horizontal stripes of an image on a ForkJoin pool and
+ * waits for all of them to complete.
+ *
+ * The stripe tasks are created once and reused so that executing does not
+ * allocate. With a single thread, the task is run inline on the caller.
+ *
+ * @author patrick
+ */
+public class StripeExecutor {
+
+    public interface Task {
+
+        /**
+         * Process the rows from y0 (inclusive) to y1 (exclusive)
+         *
+         * @param stripe index of the stripe
+         * @param y0
+         * @param y1
+         */
+        void run(int stripe, int y0, int y1);
+    }
+
+    private final int mThreads;
+    private final ForkJoinPool mPool;
+    private final Stripe[] mStripes;
+    private final Root mRoot = new Root();
+
+    /**
+     * @param threads number of worker threads, 1 to run on the calling thread
+     * @param stripes number of stripes to split the image into
+     */
+    public StripeExecutor(int threads, int stripes) {
+        mThreads = Math.max(1, threads);
+        if (mThreads > 1) {
+            mPool = new ForkJoinPool(mThreads);
+            mStripes = new Stripe[Math.max(mThreads, stripes)];
+        } else {
+            mPool = null;
+            mStripes = new Stripe[1];
+        }
+        for (int i = 0; i < mStripes.length; i++) {
+            mStripes[i] = new Stripe(i);
+        }
+    }
+
+    public int getThreads() {
+        return mThreads;
+    }
+
+    /**
+     * @param height
+     * @return the number of stripes used for an image of this height
+     */
+    public int getStripeCount(int height) {
+        if (mPool == null || height < mStripes.length) {
+            return 1;
+        }
+        return mStripes.length;
+    }
+
+    /**
+     * @param stripe
+     * @param height
+     * @return the first row of a stripe
+     */
+    public int getStripeStart(int stripe, int height) {
+        int count = getStripeCount(height);
+        if (stripe >= count) {
+            return height;
+        }
+        return stripe * (height / count);
+    }
+
+    /**
+     * Run the task over all the rows from 0 to height and wait for the result
+     *
+     * @param height
+     * @param task
+     */
+    public void execute(int height, Task task) {
+        if (getStripeCount(height) == 1) {
+            task.run(0, 0, height);
+            return;
+        }
+        for (int i = 0; i < mStripes.length; i++) {
+            Stripe s = mStripes[i];
+            s.mTask = task;
+            s.mY0 = getStripeStart(i, height);
+            s.mY1 = getStripeStart(i + 1, height);
+            s.reinitialize();
+        }
+        mRoot.reinitialize();
+        mPool.invoke(mRoot);
+        for (Stripe s : mStripes) {
+            s.mTask = null;
+        }
+    }
+
+    public void shutdown() {
+        if (mPool != null) {
+            mPool.shutdown();
+        }
+    }
+
+    private class Root extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            for (int i = 1; i < mStripes.length; i++) {
+                mStripes[i].fork();
+            }
+            mStripes[0].invoke();
+            for (int i = 1; i < mStripes.length; i++) {
+                mStripes[i].join();
+            }
+        }
+    }
+
+    private static class Stripe extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int mIndex;
+        private Task mTask;
+        private int mY0;
+        private int mY1;
+
+        private Stripe(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        protected void compute() {
+            mTask.run(mIndex, mY0, mY1);
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.blitter;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+
+/**
+ * Blending kernels for the pixel formats used by the compositor.
+ *
+ * The destination is always a TYPE_3BYTE_BGR canvas. Sources can be
+ * TYPE_3BYTE_BGR (opaque) or TYPE_4BYTE_ABGR (non-premultiplied alpha). All
+ * the kernels are integer only, do not allocate and only touch the rows
+ * between clipY0 and clipY1 so they can run on stripes of the same canvas in
+ * parallel.
+ *
+ * @author patrick
+ */
+public class Blitter {
+
+    public enum Scaling {
+        Nearest,
+        Bilinear,
+    }
+
+    /**
+     * @param img
+     * @return true if the image can be drawn by the kernels
+     */
+    public static boolean isSupported(BufferedImage img) {
+        if (img.getType() != BufferedImage.TYPE_3BYTE_BGR && img.getType() != BufferedImage.TYPE_4BYTE_ABGR) {
+            return false;
+        }
+        Raster r = img.getRaster();
+        if (!(r.getDataBuffer() instanceof DataBufferByte) || !(r.getSampleModel() instanceof ComponentSampleModel)) {
+            return false;
+        }
+        // Sub-images share a bigger raster, only plain images are supported
+        ComponentSampleModel sm = (ComponentSampleModel) r.getSampleModel();
+        int bpp = img.getType() == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
+        return r.getSampleModelTranslateX() == 0 && r.getSampleModelTranslateY() == 0
+                && sm.getPixelStride() == bpp && sm.getScanlineStride() == img.getWidth() * bpp
+                && r.getDataBuffer().getOffset() == 0;
+    }
+
+    /**
+     * Java2D has a native loop for opaque BGR images scaled without filtering,
+     * faster than scaleNearest (see BlitterBenchmark)
+     *
+     * @param img
+     * @param to destination area
+     * @param alpha global alpha from 0 to 1
+     * @param scaling
+     * @return true if Graphics2D.drawImage is faster than draw()
+     */
+    public static boolean isJava2DFaster(BufferedImage img, Rectangle to, float alpha, Scaling scaling) {
+        return scaling == Scaling.Nearest && alpha >= 1f && img.getType() == BufferedImage.TYPE_3BYTE_BGR
+                && (img.getWidth() != to.width || img.getHeight() != to.height);
+    }
+
+    /**
+     * Draw an image on a BGR canvas
+     *
+     * @param dst canvas data
+     * @param dstWidth canvas width
+     * @param dstHeight canvas height
+     * @param clipY0 first row that can be modified
+     * @param clipY1 row after the last one that can be modified
+     * @param src image to draw, must be supported
+     * @param to destination area, the image is scaled to fit
+     * @param alpha global alpha from 0 to 1
+     * @param scaling interpolation if the image must be scaled
+     */
+    public static void draw(byte[] dst, int dstWidth, int dstHeight, int clipY0, int clipY1, BufferedImage src, Rectangle to, float alpha, Scaling scaling) {
+        int a = Math.round(alpha * 255f);
+        if (a <= 0 || to.width <= 0 || to.height <= 0) {
+            return;
+        }
+        if (a > 255) {
+            a = 255;
+        }
+        int x0 = Math.max(0, to.x);
+        int x1 = Math.min(dstWidth, to.x + to.width);
+        int y0 = Math.max(Math.max(0, clipY0), to.y);
+        int y1 = Math.min(Math.min(dstHeight, clipY1), to.y + to.height);
+        if (x0 >= x1 || y0 >= y1) {
+            return;
+        }
+        byte[] data = ((DataBufferByte) src.getRaster().getDataBuffer()).getData();
+        int sw = src.getWidth();
+        int sh = src.getHeight();
+        boolean hasAlpha = src.getType() == BufferedImage.TYPE_4BYTE_ABGR;
+        if (sw == to.width && sh == to.height) {
+            if (hasAlpha) {
+                overABGR(Pixels.getDefault(), data, sw, dst, dstWidth, to.x, to.y, x0, x1, y0, y1, a);
+            } else if (a == 255) {
+                copyBGR(data, sw, dst, dstWidth, to.x, to.y, x0, x1, y0, y1);
+            } else {
+                overBGR(Pixels.getDefault(), data, sw, dst, dstWidth, to.x, to.y, x0, x1, y0, y1, a);
+            }
+        } else if (scaling == Scaling.Bilinear) {
+            scaleBilinear(data, sw, sh, hasAlpha, dst, dstWidth, to, x0, x1, y0, y1, a);
+        } else {
+            scaleNearest(data, sw, sh, hasAlpha, dst, dstWidth, to, x0, x1, y0, y1, a);
+        }
+    }
+
+    /**
+     * Copy an area of a BGR image to a whole BGR image, scaling it if needed
+     *
+     * @param src source data
+     * @param sw source width
+     * @param sh source height
+     * @param from area of the source to copy, must be inside the source
+     * @param dst destination data
+     * @param dw destination width
+     * @param dh destination height
+     * @param scaling interpolation if the area must be scaled
+     */
+    public static void crop(byte[] src, int sw, int sh, Rectangle from, byte[] dst, int dw, int dh, Scaling scaling) {
+        if (from.width == dw && from.height == dh) {
+            for (int y = 0; y < dh; y++) {
+                System.arraycopy(src, ((from.y + y) * sw + from.x) * 3, dst, y * dw * 3, dw * 3);
+            }
+            return;
+        }
+        int fx = (int) (((long) from.width << 16) / dw);
+        int fy = (int) (((long) from.height << 16) / dh);
+        int maxX = from.x + from.width - 1;
+        int maxY = from.y + from.height - 1;
+        int d = 0;
+        if (scaling == Scaling.Bilinear) {
+            for (int y = 0; y < dh; y++) {
+                int posY = (y * fy + (fy >> 1) - 0x8000);
+                int sy0 = from.y + (posY < 0 ? 0 : posY >> 16);
+                int wy = posY < 0 ? 0 : (posY >> 8) & 0xFF;
+                int row0 = Math.min(maxY, sy0) * sw;
+                int row1 = Math.min(maxY, sy0 + 1) * sw;
+                int pos = (fx >> 1) - 0x8000;
+                for (int x = 0; x < dw; x++) {
+                    int sx0 = from.x + (pos < 0 ? 0 : pos >> 16);
+                    int wx = pos < 0 ? 0 : (pos >> 8) & 0xFF;
+                    int sx1 = Math.min(maxX, sx0 + 1);
+                    sx0 = Math.min(maxX, sx0);
+                    pos += fx;
+                    int p00 = (row0 + sx0) * 3;
+                    int p01 = (row0 + sx1) * 3;
+                    int p10 = (row1 + sx0) * 3;
+                    int p11 = (row1 + sx1) * 3;
+                    for (int k = 0; k < 3; k++) {
+                        dst[d++] = (byte) bilinear(src, p00 + k, p01 + k, p10 + k, p11 + k, wx, wy);
+                    }
+                }
+            }
+        } else {
+            for (int y = 0; y < dh; y++) {
+                int row = Math.min(maxY, from.y + ((y * fy + (fy >> 1)) >> 16)) * sw;
+                int pos = fx >> 1;
+                for (int x = 0; x < dw; x++) {
+                    int s = (row + Math.min(maxX, from.x + (pos >> 16))) * 3;
+                    pos += fx;
+                    dst[d++] = src[s];
+                    dst[d++] = src[s + 1];
+                    dst[d++] = src[s + 2];
+                }
+            }
+        }
+    }
+
+    /**
+     * Opaque copy, one array copy per row
+     */
+    private static void copyBGR(byte[] src, int sw, byte[] dst, int dw, int ox, int oy, int x0, int x1, int y0, int y1) {
+        int length = (x1 - x0) * 3;
+        for (int y = y0; y < y1; y++) {
+            System.arraycopy(src, ((y - oy) * sw + (x0 - ox)) * 3, dst, (y * dw + x0) * 3, length);
+        }
+    }
+
+    /**
+     * Opaque source with a global alpha
+     */
+    private static void overBGR(Pixels pixels, byte[] src, int sw, byte[] dst, int dw, int ox, int oy, int x0, int x1, int y0, int y1, int a) {
+        for (int y = y0; y < y1; y++) {
+            pixels.overBGR(src, ((y - oy) * sw + (x0 - ox)) * 3, dst, (y * dw + x0) * 3, (x1 - x0) * 3, a);
+        }
+    }
+
+    /**
+     * Per-pixel alpha multiplied by a global alpha
+     */
+    private static void overABGR(Pixels pixels, byte[] src, int sw, byte[] dst, int dw, int ox, int oy, int x0, int x1, int y0, int y1, int a) {
+        for (int y = y0; y < y1; y++) {
+            pixels.overABGR(src, ((y - oy) * sw + (x0 - ox)) * 4, dst, (y * dw + x0) * 3, x1 - x0, a);
+        }
+    }
+
+    private static void scaleNearest(byte[] src, int sw, int sh, boolean hasAlpha, byte[] dst, int dw, Rectangle to, int x0, int x1, int y0, int y1, int a) {
+        int bpp = hasAlpha ? 4 : 3;
+        int fx = (int) (((long) sw << 16) / to.width);
+        int fy = (int) (((long) sh << 16) / to.height);
+        // Offset of the source pixel of each column, the same for every row
+        int[] columns = new int[x1 - x0];
+        for (int x = x0, pos = (x0 - to.x) * fx + (fx >> 1); x < x1; x++, pos += fx) {
+            columns[x - x0] = Math.min(sw - 1, pos >> 16) * bpp;
+        }
+        boolean opaque = !hasAlpha && a == 255;
+        int lastRow = -1;
+        for (int y = y0; y < y1; y++) {
+            int sy = Math.min(sh - 1, (int) (((long) (y - to.y) * fy + (fy >> 1)) >> 16));
+            int row = sy * sw * bpp;
+            int d = (y * dw + x0) * 3;
+            if (opaque && sy == lastRow) {
+                // Enlarged, same source row as the row above
+                System.arraycopy(dst, d - dw * 3, dst, d, (x1 - x0) * 3);
+                continue;
+            }
+            lastRow = sy;
+            if (opaque) {
+                for (int x = 0; x < columns.length; x++, d += 3) {
+                    int s = row + columns[x];
+                    dst[d] = src[s];
+                    dst[d + 1] = src[s + 1];
+                    dst[d + 2] = src[s + 2];
+                }
+                continue;
+            }
+            for (int x = 0; x < columns.length; x++) {
+                int s = row + columns[x];
+                int pa = a;
+                if (hasAlpha) {
+                    pa = a == 255 ? src[s] & 0xFF : div255((src[s] & 0xFF) * a);
+                    s++;
+                }
+                if (pa == 255) {
+                    dst[d] = src[s];
+                    dst[d + 1] = src[s + 1];
+                    dst[d + 2] = src[s + 2];
+                } else if (pa != 0) {
+                    dst[d] = blend(src[s] & 0xFF, dst[d] & 0xFF, pa);
+                    dst[d + 1] = blend(src[s + 1] & 0xFF, dst[d + 1] & 0xFF, pa);
+                    dst[d + 2] = blend(src[s + 2] & 0xFF, dst[d + 2] & 0xFF, pa);
+                }
+                d += 3;
+            }
+        }
+    }
+
+    private static void scaleBilinear(byte[] src, int sw, int sh, boolean hasAlpha, byte[] dst, int dw, Rectangle to, int x0, int x1, int y0, int y1, int a) {
+        int bpp = hasAlpha ? 4 : 3;
+        int fx = (int) (((long) sw << 16) / to.width);
+        int fy = (int) (((long) sh << 16) / to.height);
+        int startX = (x0 - to.x) * fx + (fx >> 1) - 0x8000;
+        for (int y = y0; y < y1; y++) {
+            int posY = (int) ((long) (y - to.y) * fy + (fy >> 1) - 0x8000);
+            int sy0 = posY < 0 ? 0 : posY >> 16;
+            int wy = posY < 0 ? 0 : (posY >> 8) & 0xFF;
+            int sy1 = Math.min(sh - 1, sy0 + 1);
+            int row0 = sy0 * sw;
+            int row1 = sy1 * sw;
+            int pos = startX;
+            int d = (y * dw + x0) * 3;
+            for (int x = x0; x < x1; x++) {
+                int sx0 = pos < 0 ? 0 : Math.min(sw - 1, pos >> 16);
+                int wx = pos < 0 ? 0 : (pos >> 8) & 0xFF;
+                int sx1 = Math.min(sw - 1, sx0 + 1);
+                pos += fx;
+                int p00 = (row0 + sx0) * bpp;
+                int p01 = (row0 + sx1) * bpp;
+                int p10 = (row1 + sx0) * bpp;
+                int p11 = (row1 + sx1) * bpp;
+                if (hasAlpha) {
+                    // Interpolate premultiplied colours so that transparent
+                    // pixels don't bleed into their neighbours
+                    int w00 = (256 - wx) * (256 - wy) * (src[p00] & 0xFF);
+                    int w01 = wx * (256 - wy) * (src[p01] & 0xFF);
+                    int w10 = (256 - wx) * wy * (src[p10] & 0xFF);
+                    int w11 = wx * wy * (src[p11] & 0xFF);
+                    int sum = w00 + w01 + w10 + w11;
+                    int pa = (sum + 0x8000) >> 16;
+                    if (a != 255) {
+                        pa = div255(pa * a);
+                    }
+                    if (pa != 0 && sum != 0) {
+                        long w = sum;
+                        for (int k = 1; k < 4; k++) {
+                            long v = (long) w00 * (src[p00 + k] & 0xFF) + (long) w01 * (src[p01 + k] & 0xFF)
+                                    + (long) w10 * (src[p10 + k] & 0xFF) + (long) w11 * (src[p11 + k] & 0xFF);
+                            int color = (int) ((v + (w >> 1)) / w);
+                            dst[d + k - 1] = pa == 255 ? (byte) color : blend(color, dst[d + k - 1] & 0xFF, pa);
+                        }
+                    }
+                } else {
+                    for (int k = 0; k < 3; k++) {
+                        int v = bilinear(src, p00 + k, p01 + k, p10 + k, p11 + k, wx, wy);
+                        dst[d + k] = a == 255 ? (byte) v : blend(v, dst[d + k] & 0xFF, a);
+                    }
+                }
+                d += 3;
+            }
+        }
+    }
+
+    private static int bilinear(byte[] src, int p00, int p01, int p10, int p11, int wx, int wy) {
+        int top = (src[p00] & 0xFF) * (256 - wx) + (src[p01] & 0xFF) * wx;
+        int bottom = (src[p10] & 0xFF) * (256 - wx) + (src[p11] & 0xFF) * wx;
+        return (top * (256 - wy) + bottom * wy + 0x8000) >> 16;
+    }
+
+    static byte blend(int s, int d, int a) {
+        return (byte) div255(s * a + d * (255 - a));
+    }
+
+    /**
+     * Rounded division by 255 for values from 0 to 65025
+     */
+    static int div255(int v) {
+        v += 128;
+        return (v + (v >> 8)) >> 8;
+    }
+}
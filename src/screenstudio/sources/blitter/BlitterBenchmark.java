@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.blitter;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Random;
+
+/**
+ * Time to draw a source on a 1080p BGR frame with Graphics2D.drawImage and an
+ * AlphaComposite, the way the compositor did, and with the Blitter kernels:
+ * opaque copy, global alpha, per-pixel alpha, nearest and bilinear scaling.
+ *
+ * java -cp build/classes screenstudio.sources.blitter.BlitterBenchmark
+ * [seconds per test]
+ *
+ * The benchmarks are left out of the jar (dist.archive.excludes).
+ *
+ * @author patrick
+ */
+public class BlitterBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    private enum Case {
+        Copy(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR, 1f, Blitter.Scaling.Nearest),
+        GlobalAlpha(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR, 0.6f, Blitter.Scaling.Nearest),
+        PixelAlpha(WIDTH, HEIGHT, BufferedImage.TYPE_4BYTE_ABGR, 1f, Blitter.Scaling.Nearest),
+        // A 720p capture drawn full frame
+        Nearest(1280, 720, BufferedImage.TYPE_3BYTE_BGR, 1f, Blitter.Scaling.Nearest),
+        Bilinear(1280, 720, BufferedImage.TYPE_3BYTE_BGR, 1f, Blitter.Scaling.Bilinear);
+
+        private final int mWidth;
+        private final int mHeight;
+        private final int mType;
+        private final float mAlpha;
+        private final Blitter.Scaling mScaling;
+
+        private Case(int width, int height, int type, float alpha, Blitter.Scaling scaling) {
+            mWidth = width;
+            mHeight = height;
+            mType = type;
+            mAlpha = alpha;
+            mScaling = scaling;
+        }
+    }
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        BufferedImage canvas = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] dst = ((DataBufferByte) canvas.getRaster().getDataBuffer()).getData();
+        Rectangle to = new Rectangle(0, 0, WIDTH, HEIGHT);
+        Graphics2D g = canvas.createGraphics();
+        System.out.println(String.format("%-12s %12s %12s", "Kernel", "Graphics2D", "Blitter"));
+        for (Case c : Case.values()) {
+            BufferedImage src = createImage(c);
+            g.setComposite(AlphaComposite.SrcOver.derive(c.mAlpha));
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, c.mScaling == Blitter.Scaling.Bilinear
+                    ? RenderingHints.VALUE_INTERPOLATION_BILINEAR : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            double java2d = run(() -> g.drawImage(src, 0, 0, WIDTH, HEIGHT, null), seconds);
+            double blitter = run(() -> Blitter.draw(dst, WIDTH, HEIGHT, 0, HEIGHT, src, to, c.mAlpha, c.mScaling), seconds);
+            System.out.println(String.format("%-12s %9.2f ms %9.2f ms  x%.1f", c, java2d, blitter, java2d / blitter));
+        }
+        g.dispose();
+    }
+
+    private static BufferedImage createImage(Case c) {
+        BufferedImage image = new BufferedImage(c.mWidth, c.mHeight, c.mType);
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        Random random = new Random(1);
+        random.nextBytes(data);
+        if (c.mType == BufferedImage.TYPE_4BYTE_ABGR) {
+            // Mostly opaque or transparent, like a keyed webcam
+            for (int i = 0; i < data.length; i += 4) {
+                int a = random.nextInt(10);
+                data[i] = (byte) (a < 4 ? 0 : a < 8 ? 255 : random.nextInt(256));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * @return milliseconds per frame, after a warm up
+     */
+    private static double run(Runnable draw, double seconds) {
+        long warmup = System.nanoTime() + (long) (seconds * 0.3e9);
+        while (System.nanoTime() < warmup) {
+            draw.run();
+        }
+        long frames = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long now;
+        do {
+            draw.run();
+            frames++;
+            now = System.nanoTime();
+        } while (now < end);
+        return (now - start) / 1000000D / frames;
+    }
+}
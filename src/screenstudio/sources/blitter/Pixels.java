@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.blitter;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The innermost loops of the blitter, the YUV conversion and the effects,
+ * one row at a time.
+ *
+ * This class is the scalar implementation. VectorPixels does the same with
+ * the Vector API of Java 16 and later (jdk.incubator.vector). It is compiled
+ * from src-vector when the JDK building the project supports it, and used
+ * when the JVM was started with --add-modules jdk.incubator.vector. Both
+ * give exactly the same results.
+ *
+ * @author patrick
+ */
+public class Pixels {
+
+    private static final Pixels SCALAR = new Pixels();
+    private static boolean mVectorEnabled = true;
+
+    protected Pixels() {
+    }
+
+    /**
+     * @param value false to always use the scalar loops
+     */
+    public static void setVectorEnabled(boolean value) {
+        mVectorEnabled = value;
+    }
+
+    /**
+     * @return the vector implementation if enabled and available, else the
+     * scalar one
+     */
+    public static Pixels getDefault() {
+        Pixels vector = mVectorEnabled ? getVector() : null;
+        return vector == null ? SCALAR : vector;
+    }
+
+    public static Pixels getScalar() {
+        return SCALAR;
+    }
+
+    /**
+     * @return the vector implementation, null if not available
+     */
+    public static Pixels getVector() {
+        return Vector.INSTANCE;
+    }
+
+    /**
+     * Loaded on first use only
+     */
+    private static class Vector {
+
+        private static final Pixels INSTANCE = load();
+
+        private static Pixels load() {
+            try {
+                Pixels pixels = (Pixels) Class.forName("screenstudio.sources.blitter.VectorPixels").getDeclaredConstructor().newInstance();
+                Logger.getLogger(Pixels.class.getName()).log(Level.FINE, "Using {0}", pixels.getName());
+                return pixels;
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                // Not compiled, older Java or the module is not added
+                return null;
+            }
+        }
+    }
+
+    public String getName() {
+        return "scalar";
+    }
+
+    /**
+     * Blend bytes of an opaque image over the destination
+     *
+     * @param src
+     * @param s offset in src
+     * @param dst
+     * @param d offset in dst
+     * @param length number of bytes
+     * @param a alpha from 0 to 255
+     */
+    public void overBGR(byte[] src, int s, byte[] dst, int d, int length, int a) {
+        for (int end = d + length; d < end; d++, s++) {
+            dst[d] = Blitter.blend(src[s] & 0xFF, dst[d] & 0xFF, a);
+        }
+    }
+
+    /**
+     * Blend ABGR pixels over BGR pixels
+     *
+     * @param src ABGR pixels, non premultiplied
+     * @param s offset in src
+     * @param dst BGR pixels
+     * @param d offset in dst
+     * @param pixels number of pixels
+     * @param a global alpha from 0 to 255, multiplied by the alpha of each
+     * pixel
+     */
+    public void overABGR(byte[] src, int s, byte[] dst, int d, int pixels, int a) {
+        for (int end = d + pixels * 3; d < end; s += 4, d += 3) {
+            int pa = src[s] & 0xFF;
+            if (a != 255) {
+                pa = Blitter.div255(pa * a);
+            }
+            if (pa == 255) {
+                dst[d] = src[s + 1];
+                dst[d + 1] = src[s + 2];
+                dst[d + 2] = src[s + 3];
+            } else if (pa != 0) {
+                dst[d] = Blitter.blend(src[s + 1] & 0xFF, dst[d] & 0xFF, pa);
+                dst[d + 1] = Blitter.blend(src[s + 2] & 0xFF, dst[d + 1] & 0xFF, pa);
+                dst[d + 2] = Blitter.blend(src[s + 3] & 0xFF, dst[d + 2] & 0xFF, pa);
+            }
+        }
+    }
+
+    /**
+     * Limited range luma of BGR pixels: ((yr * r + yg * g + yb * b + 128) >>
+     * 8) + 16, the weights add up to 256 at most
+     *
+     * @param bgr
+     * @param p offset in bgr
+     * @param y one byte per pixel
+     * @param o offset in y
+     * @param pixels number of pixels
+     * @param yr
+     * @param yg
+     * @param yb
+     */
+    public void luma(byte[] bgr, int p, byte[] y, int o, int pixels, int yr, int yg, int yb) {
+        for (int end = o + pixels; o < end; o++, p += 3) {
+            y[o] = (byte) (((yr * (bgr[p + 2] & 0xFF) + yg * (bgr[p + 1] & 0xFF) + yb * (bgr[p] & 0xFF) + 128) >> 8) + 16);
+        }
+    }
+
+    /**
+     * Chroma of pairs of pixels on two rows: the sums of the 2x2 BGR pixels,
+     * ((cr * r + cg * g + cb * b + 512) >> 10) + 128, for U and V
+     *
+     * @param bgr
+     * @param p0 offset of the first pixel of the first row in bgr
+     * @param p1 offset of the first pixel of the second row in bgr
+     * @param u one byte per pair
+     * @param v one byte per pair
+     * @param o offset in u and v
+     * @param pairs number of pairs of pixels
+     * @param ur
+     * @param ug
+     * @param ub
+     * @param vr
+     * @param vg
+     * @param vb
+     */
+    public void chroma(byte[] bgr, int p0, int p1, byte[] u, byte[] v, int o, int pairs, int ur, int ug, int ub, int vr, int vg, int vb) {
+        for (int end = o + pairs; o < end; o++, p0 += 6, p1 += 6) {
+            int sb = (bgr[p0] & 0xFF) + (bgr[p1] & 0xFF) + (bgr[p0 + 3] & 0xFF) + (bgr[p1 + 3] & 0xFF);
+            int sg = (bgr[p0 + 1] & 0xFF) + (bgr[p1 + 1] & 0xFF) + (bgr[p0 + 4] & 0xFF) + (bgr[p1 + 4] & 0xFF);
+            int sr = (bgr[p0 + 2] & 0xFF) + (bgr[p1 + 2] & 0xFF) + (bgr[p0 + 5] & 0xFF) + (bgr[p1 + 5] & 0xFF);
+            u[o] = (byte) (((ur * sr + ug * sg + ub * sb + 512) >> 10) + 128);
+            v[o] = (byte) (((vr * sr + vg * sg + vb * sb + 512) >> 10) + 128);
+        }
+    }
+
+    /**
+     * 3x3 blur (1 2 1 / 2 2 2 / 1 2 1) / 14 of the bytes of a row, the
+     * neighbours of a byte are bpp bytes before and after it, which must be
+     * in the row
+     *
+     * @param src
+     * @param up offset of the first byte in the row above
+     * @param row offset of the first byte in the row
+     * @param down offset of the first byte in the row below
+     * @param dst
+     * @param out offset of the first byte in dst
+     * @param length number of bytes
+     * @param bpp
+     */
+    public void blur(byte[] src, int up, int row, int down, byte[] dst, int out, int length, int bpp) {
+        for (int j = 0; j < length; j++) {
+            int corners = (src[up + j - bpp] & 0xFF) + (src[up + j + bpp] & 0xFF) + (src[down + j - bpp] & 0xFF) + (src[down + j + bpp] & 0xFF);
+            int sides = (src[up + j] & 0xFF) + (src[down + j] & 0xFF) + (src[row + j - bpp] & 0xFF) + (src[row + j + bpp] & 0xFF) + (src[row + j] & 0xFF);
+            // 4681 / 65536 = 1 / 14
+            dst[out + j] = (byte) (((corners + (sides << 1)) * 4681 + 32768) >> 16);
+        }
+    }
+
+    /**
+     * Gray of BGR (bpp 3) or ABGR (bpp 4) pixels, alpha is kept
+     *
+     * @param src
+     * @param dst
+     * @param offset in src and dst
+     * @param pixels number of pixels
+     * @param bpp
+     */
+    public void gray(byte[] src, byte[] dst, int offset, int pixels, int bpp) {
+        int c = bpp - 3;
+        for (int i = offset, end = offset + pixels * bpp; i < end; i += bpp) {
+            int b = src[i + c] & 0xFF;
+            int g = src[i + c + 1] & 0xFF;
+            int r = src[i + c + 2] & 0xFF;
+            byte l = (byte) ((r * 77 + g * 151 + b * 28) >> 8);
+            if (c == 1) {
+                dst[i] = src[i];
+            }
+            dst[i + c] = l;
+            dst[i + c + 1] = l;
+            dst[i + c + 2] = l;
+        }
+    }
+}
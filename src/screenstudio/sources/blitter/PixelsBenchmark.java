@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.blitter;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Time per pixel of each loop of Pixels, scalar and vector, at 720p, 1080p
+ * and 1440p. Also checks that both give the same bytes.
+ *
+ * java --add-modules jdk.incubator.vector -cp build/classes
+ * screenstudio.sources.blitter.PixelsBenchmark [seconds per test]
+ *
+ * The benchmarks are left out of the jar (dist.archive.excludes).
+ *
+ * @author patrick
+ */
+public class PixelsBenchmark {
+
+    /**
+     * Each loop has its own method, like the callers of Pixels, so the JIT
+     * compiles them apart
+     */
+    private enum Loop {
+        OverBGR {
+            @Override
+            void frame(Pixels pixels, byte[] bgr, byte[] abgr, byte[] out, int width, int height) {
+                for (int y = 0; y < height; y++) {
+                    pixels.overBGR(bgr, y * width * 3, out, y * width * 3, width * 3, 160);
+                }
+            }
+        },
+        OverABGR {
+            @Override
+            void frame(Pixels pixels, byte[] bgr, byte[] abgr, byte[] out, int width, int height) {
+                for (int y = 0; y < height; y++) {
+                    pixels.overABGR(abgr, y * width * 4, out, y * width * 3, width, 200);
+                }
+            }
+        },
+        Luma {
+            @Override
+            void frame(Pixels pixels, byte[] bgr, byte[] abgr, byte[] out, int width, int height) {
+                for (int y = 0; y < height; y++) {
+                    pixels.luma(bgr, y * width * 3, out, y * width, width, 66, 129, 25);
+                }
+            }
+        },
+        Chroma {
+            // V only goes here, out is compared for U
+            private byte[] mV;
+
+            @Override
+            void frame(Pixels pixels, byte[] bgr, byte[] abgr, byte[] out, int width, int height) {
+                int cw = YUV420.getChromaWidth(width);
+                if (mV == null || mV.length < out.length) {
+                    mV = new byte[out.length];
+                }
+                for (int y = 0; y < height / 2; y++) {
+                    pixels.chroma(bgr, y * 2 * width * 3, (y * 2 + 1) * width * 3, out, mV, y * cw, width / 2, -38, -74, 112, 112, -94, -18);
+                }
+            }
+        },
+        Blur {
+            @Override
+            void frame(Pixels pixels, byte[] bgr, byte[] abgr, byte[] out, int width, int height) {
+                int stride = width * 3;
+                for (int y = 1; y < height - 1; y++) {
+                    pixels.blur(bgr, (y - 1) * stride + 3, y * stride + 3, (y + 1) * stride + 3, out, y * stride + 3, stride - 6, 3);
+                }
+            }
+        },
+        GrayBGR {
+            @Override
+            void frame(Pixels pixels, byte[] bgr, byte[] abgr, byte[] out, int width, int height) {
+                for (int y = 0; y < height; y++) {
+                    pixels.gray(bgr, out, y * width * 3, width, 3);
+                }
+            }
+        },
+        GrayABGR {
+            @Override
+            void frame(Pixels pixels, byte[] bgr, byte[] abgr, byte[] out, int width, int height) {
+                for (int y = 0; y < height; y++) {
+                    pixels.gray(abgr, out, y * width * 4, width, 4);
+                }
+            }
+        };
+
+        abstract void frame(Pixels pixels, byte[] bgr, byte[] abgr, byte[] out, int width, int height);
+    }
+
+    private static final int[][] SIZES = {{1280, 720}, {1920, 1080}, {2560, 1440}};
+
+    public static void main(String[] args) {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 1;
+        Pixels vector = Pixels.getVector();
+        if (vector == null) {
+            System.out.println("Vector API not available, scalar only (needs Java 16+ and --add-modules jdk.incubator.vector)");
+        }
+        System.out.println(String.format("%-10s %-10s %10s %10s", "Loop", "Size", "scalar", "vector"));
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            byte[] bgr = new byte[width * height * 3];
+            byte[] abgr = new byte[width * height * 4];
+            Random random = new Random(1);
+            random.nextBytes(bgr);
+            random.nextBytes(abgr);
+            // Mostly opaque or transparent, like a keyed webcam
+            for (int i = 0; i < abgr.length; i += 4) {
+                int a = random.nextInt(10);
+                abgr[i] = (byte) (a < 4 ? 0 : a < 8 ? 255 : random.nextInt(256));
+            }
+            for (Loop loop : Loop.values()) {
+                byte[] scalarOut = new byte[width * height * 4];
+                byte[] vectorOut = new byte[width * height * 4];
+                double scalar = run(Pixels.getScalar(), loop, bgr, abgr, scalarOut, width, height, seconds);
+                String result = "-";
+                if (vector != null) {
+                    double ns = run(vector, loop, bgr, abgr, vectorOut, width, height, seconds);
+                    // The blends depend on the previous content, compare one run
+                    run(Pixels.getScalar(), loop, bgr, abgr, scalarOut, width, height, 0);
+                    run(vector, loop, bgr, abgr, vectorOut, width, height, 0);
+                    result = String.format("%7.3f ns", ns) + (Arrays.equals(scalarOut, vectorOut) ? "" : " DIFFERS");
+                }
+                System.out.println(String.format("%-10s %-10s %7.3f ns %10s", loop, height + "p", scalar, result));
+            }
+        }
+    }
+
+    /**
+     * @return nanoseconds per pixel, after a warm up
+     */
+    private static double run(Pixels pixels, Loop loop, byte[] bgr, byte[] abgr, byte[] out, int width, int height, double seconds) {
+        if (seconds == 0) {
+            Arrays.fill(out, (byte) 0x55);
+            loop.frame(pixels, bgr, abgr, out, width, height);
+            return 0;
+        }
+        long warmup = System.nanoTime() + (long) (seconds * 0.3e9);
+        while (System.nanoTime() < warmup) {
+            loop.frame(pixels, bgr, abgr, out, width, height);
+        }
+        long frames = 0;
+        long start = System.nanoTime();
+        long end = start + (long) (seconds * 1e9);
+        long now;
+        do {
+            loop.frame(pixels, bgr, abgr, out, width, height);
+            frames++;
+            now = System.nanoTime();
+        } while (now < end);
+        return (now - start) / (double) (frames * width * height);
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.blitter;
+
+/**
+ * Conversion of a BGR canvas to planar YUV 4:2:0 (limited range), as expected
+ * by ffmpeg with -pix_fmt yuv420p.
+ *
+ * The conversion works on pairs of rows so that it can run on stripes of the
+ * same canvas in parallel. Each chroma sample is computed from the average of
+ * the 2x2 pixels it covers.
+ *
+ * @author patrick
+ */
+public class YUV420 {
+
+    /**
+     * Coefficients scaled by 256. The U and V rows are rounded to sum to 0
+     * so that grays have no color.
+     */
+    public enum Matrix {
+        BT601("smpte170m", 66, 129, 25, -38, -74, 112, 112, -94, -18),
+        BT709("bt709", 47, 157, 16, -26, -86, 112, 112, -102, -10);
+
+        private final String mColorSpace;
+        private final int mYR, mYG, mYB, mUR, mUG, mUB, mVR, mVG, mVB;
+
+        Matrix(String colorSpace, int yr, int yg, int yb, int ur, int ug, int ub, int vr, int vg, int vb) {
+            mColorSpace = colorSpace;
+            mYR = yr;
+            mYG = yg;
+            mYB = yb;
+            mUR = ur;
+            mUG = ug;
+            mUB = ub;
+            mVR = vr;
+            mVG = vg;
+            mVB = vb;
+        }
+
+        /**
+         * @return the name of the color space for ffmpeg -colorspace
+         */
+        public String getColorSpace() {
+            return mColorSpace;
+        }
+    }
+
+    /**
+     * @param width
+     * @param height
+     * @return the size in bytes of a frame
+     */
+    public static int getFrameSize(int width, int height) {
+        return width * height + 2 * getChromaWidth(width) * getChromaHeight(height);
+    }
+
+    public static int getChromaWidth(int width) {
+        return (width + 1) / 2;
+    }
+
+    public static int getChromaHeight(int height) {
+        return (height + 1) / 2;
+    }
+
+    /**
+     * Convert one pair of rows
+     *
+     * @param bgr canvas data
+     * @param width
+     * @param height
+     * @param chromaRow row of the chroma planes, covering the rows chromaRow*2
+     * and chromaRow*2+1 of the canvas
+     * @param y0 luma of the first row, width bytes
+     * @param y1 luma of the second row, width bytes, ignored for the last row
+     * of an odd height
+     * @param u chroma, (width+1)/2 bytes
+     * @param v chroma, (width+1)/2 bytes
+     * @param m
+     */
+    public static void convertRows(byte[] bgr, int width, int height, int chromaRow, byte[] y0, byte[] y1, byte[] u, byte[] v, Matrix m) {
+        int row0 = chromaRow * 2;
+        int row1 = Math.min(height - 1, row0 + 1);
+        int p0 = row0 * width * 3;
+        int p1 = row1 * width * 3;
+        int cw = getChromaWidth(width);
+        Pixels pixels = Pixels.getDefault();
+        pixels.luma(bgr, p0, y0, 0, width, m.mYR, m.mYG, m.mYB);
+        pixels.luma(bgr, p1, y1, 0, width, m.mYR, m.mYG, m.mYB);
+        // The rows are still in the cache for the chroma
+        int pairs = width / 2;
+        pixels.chroma(bgr, p0, p1, u, v, 0, pairs, m.mUR, m.mUG, m.mUB, m.mVR, m.mVG, m.mVB);
+        if (pairs < cw) {
+            // The last pixel of an odd width counts twice
+            p0 += pairs * 6;
+            p1 += pairs * 6;
+            int sb = ((bgr[p0] & 0xFF) + (bgr[p1] & 0xFF)) * 2;
+            int sg = ((bgr[p0 + 1] & 0xFF) + (bgr[p1 + 1] & 0xFF)) * 2;
+            int sr = ((bgr[p0 + 2] & 0xFF) + (bgr[p1 + 2] & 0xFF)) * 2;
+            // Sums of 4 pixels, one more >> 2 than the luma
+            u[pairs] = (byte) (((m.mUR * sr + m.mUG * sg + m.mUB * sb + 512) >> 10) + 128);
+            v[pairs] = (byte) (((m.mVR * sr + m.mVG * sg + m.mVB * sb + 512) >> 10) + 128);
+        }
+    }
+}
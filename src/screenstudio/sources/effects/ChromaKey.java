@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.effects;
+
+import screenstudio.sources.StripeExecutor;
+
+/**
+ * Removes a green background from a BGR frame, writing an ABGR frame.
+ *
+ * The transparency of every color is precomputed in a table indexed by the
+ * color on 5 bits per channel (32KB, stays in the cache). It comes from the
+ * position of the color in the CbCr plane: the further it goes in the
+ * direction of the key and the closer it stays to that direction, the more
+ * transparent it is. Green light reflected on the subject (spill) is removed
+ * by limiting green to the max of red and blue, and the edges of the mask can
+ * be softened by a 3x3 average of the alpha.
+ *
+ * The frame is processed in stripes over a few threads.
+ *
+ * @author patrick
+ */
+public class ChromaKey {
+
+    /**
+     * Pure green, in the CbCr plane (BT.601 full range)
+     */
+    private static final double KEY_CB = -0.3313 * 255;
+    private static final double KEY_CR = -0.4187 * 255;
+    /**
+     * Half angle of the cone of keyed colors around the key direction
+     */
+    private static final double ANGLE = Math.toRadians(30);
+    /**
+     * Width of the transition from transparent to opaque, in CbCr units
+     */
+    private static final double RAMP = 24;
+
+    private final byte[] mTable = new byte[32 * 32 * 32];
+    private final int mThreads;
+    private StripeExecutor mStripes;
+    private boolean mSpill = true;
+    private boolean mSoften = true;
+    private byte[] mAlpha;
+    private int[][] mColumns;
+    // Frame being processed by the stripes
+    private byte[] mSrc;
+    private byte[] mDst;
+    private int mWidth;
+    private int mHeight;
+    private final StripeExecutor.Task mKeyTask = (stripe, y0, y1) -> key(y0, y1);
+    private final StripeExecutor.Task mSoftenTask = (stripe, y0, y1) -> soften(stripe, y0, y1);
+
+    /**
+     * @param sensitivity from 1 to 10, the higher the more colors around the
+     * key are removed
+     * @param threads number of threads keying stripes of each frame
+     */
+    public ChromaKey(int sensitivity, int threads) {
+        mThreads = Math.max(1, threads);
+        sensitivity = Math.max(1, Math.min(10, sensitivity));
+        double threshold = 26 - 2 * sensitivity;
+        double length = Math.hypot(KEY_CB, KEY_CR);
+        double kx = KEY_CB / length;
+        double ky = KEY_CR / length;
+        double cotan = 1 / Math.tan(ANGLE);
+        for (int i = 0; i < mTable.length; i++) {
+            // Center of the cell
+            int r = ((i >> 10) << 3) + 4;
+            int g = (((i >> 5) & 31) << 3) + 4;
+            int b = ((i & 31) << 3) + 4;
+            double cb = -0.1687 * r - 0.3313 * g + 0.5 * b;
+            double cr = 0.5 * r - 0.4187 * g - 0.0813 * b;
+            double along = cb * kx + cr * ky;
+            double across = Math.abs(cb * ky - cr * kx);
+            double strength = along - across * cotan;
+            double alpha = 255 - (strength - threshold) * 255 / RAMP;
+            mTable[i] = (byte) Math.max(0, Math.min(255, Math.round(alpha)));
+        }
+    }
+
+    /**
+     * @param value true to remove the green reflected on the subject
+     */
+    public void setSpillSuppression(boolean value) {
+        mSpill = value;
+    }
+
+    /**
+     * @param value true to average the alpha over 3x3 pixels
+     */
+    public void setSoftEdges(boolean value) {
+        mSoften = value;
+    }
+
+    /**
+     * Key a frame
+     *
+     * @param src BGR pixels
+     * @param dst ABGR pixels, same size
+     * @param width
+     * @param height
+     */
+    public void apply(byte[] src, byte[] dst, int width, int height) {
+        if (mStripes == null) {
+            mStripes = new StripeExecutor(mThreads, mThreads * 2);
+        }
+        // Same number of pixels is not enough, the rows may be longer
+        if (mSoften && (mAlpha == null || mAlpha.length != width * height || mColumns[0].length != width + 2)) {
+            mAlpha = new byte[width * height];
+            // One row of column sums per stripe, with the edges repeated
+            mColumns = new int[mStripes.getStripeCount(height)][width + 2];
+        }
+        mSrc = src;
+        mDst = dst;
+        mWidth = width;
+        mHeight = height;
+        mStripes.execute(height, mKeyTask);
+        if (mSoften) {
+            // Needs the alpha of the rows of the other stripes
+            mStripes.execute(height, mSoftenTask);
+        }
+        mSrc = null;
+        mDst = null;
+    }
+
+    private void key(int y0, int y1) {
+        byte[] src = mSrc;
+        byte[] dst = mDst;
+        byte[] table = mTable;
+        byte[] alphas = mSoften ? mAlpha : null;
+        boolean spill = mSpill;
+        for (int p = y0 * mWidth, end = y1 * mWidth; p < end; p++) {
+            int i = p * 3;
+            int o = p << 2;
+            int b = src[i] & 0xFF;
+            int g = src[i + 1] & 0xFF;
+            int r = src[i + 2] & 0xFF;
+            byte a = table[((r >> 3) << 10) | ((g >> 3) << 5) | (b >> 3)];
+            // Also on transparent pixels, soft edges can show them a bit
+            if (spill) {
+                int max = r > b ? r : b;
+                if (g > max) {
+                    g = max;
+                }
+            }
+            if (alphas != null) {
+                alphas[p] = a;
+            }
+            dst[o] = a;
+            dst[o + 1] = (byte) b;
+            dst[o + 2] = (byte) g;
+            dst[o + 3] = (byte) r;
+        }
+    }
+
+    private void soften(int stripe, int y0, int y1) {
+        byte[] alphas = mAlpha;
+        byte[] dst = mDst;
+        int w = mWidth;
+        int[] column = mColumns[stripe];
+        for (int y = y0; y < y1; y++) {
+            int up = Math.max(0, y - 1) * w;
+            int row = y * w;
+            int down = Math.min(mHeight - 1, y + 1) * w;
+            // Separable: sums of 3 rows, then of 3 columns
+            for (int x = 0; x < w; x++) {
+                column[x + 1] = (alphas[up + x] & 0xFF) + (alphas[row + x] & 0xFF) + (alphas[down + x] & 0xFF);
+            }
+            column[0] = column[1];
+            column[w + 1] = column[w];
+            for (int x = 0; x < w; x++) {
+                int sum = column[x] + column[x + 1] + column[x + 2];
+                // 7282 / 65536 = 1 / 9
+                dst[(row + x) << 2] = (byte) ((sum * 7282 + 32768) >> 16);
+            }
+        }
+    }
+
+    /**
+     * Stop the threads, they are started again by the next apply()
+     */
+    public void close() {
+        if (mStripes != null) {
+            mStripes.shutdown();
+            mStripes = null;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.effects;
+
+import java.util.Random;
+
+/**
+ * Measures the time to key a 1080p frame, on one thread and on the default
+ * number of compositor threads, against the budget of a frame at 30 fps.
+ *
+ * ChromaKeyBenchmark [seconds]
+ *
+ * @author patrick
+ */
+public class ChromaKeyBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int FPS = 30;
+
+    public static void main(String[] args) {
+        int seconds = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        byte[] src = createFrame();
+        byte[] dst = new byte[WIDTH * HEIGHT * 4];
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        run("1 thread, hard edges", new ChromaKey(1, 1), false, src, dst, seconds);
+        run("1 thread, soft edges", new ChromaKey(1, 1), true, src, dst, seconds);
+        if (threads > 1) {
+            run(threads + " threads, soft edges", new ChromaKey(1, threads), true, src, dst, seconds);
+        }
+    }
+
+    private static void run(String name, ChromaKey key, boolean soften, byte[] src, byte[] dst, int seconds) {
+        key.setSoftEdges(soften);
+        // Warm up
+        for (int i = 0; i < FPS; i++) {
+            key.apply(src, dst, WIDTH, HEIGHT);
+        }
+        long frames = (long) seconds * FPS;
+        long start = System.nanoTime();
+        for (long i = 0; i < frames; i++) {
+            key.apply(src, dst, WIDTH, HEIGHT);
+        }
+        double ms = (System.nanoTime() - start) / 1000000D / frames;
+        key.close();
+        System.out.println(String.format("%-24s: %6.2f ms/frame, %5.1f%% of the %d fps budget", name, ms, ms * FPS / 10, FPS));
+    }
+
+    /**
+     * A noisy green background with a gray subject in the middle
+     */
+    private static byte[] createFrame() {
+        Random random = new Random(0);
+        byte[] frame = new byte[WIDTH * HEIGHT * 3];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = (y * WIDTH + x) * 3;
+                int n = random.nextInt(24);
+                boolean subject = Math.hypot(x - WIDTH / 2, (y - HEIGHT / 2) * 1.5) < HEIGHT / 3;
+                if (subject) {
+                    frame[i] = (byte) (110 + n);
+                    frame[i + 1] = (byte) (130 + n);
+                    frame[i + 2] = (byte) (170 + n);
+                } else {
+                    frame[i] = (byte) (50 + n);
+                    frame[i + 1] = (byte) (170 + n);
+                    frame[i + 2] = (byte) (60 + n);
+                }
+            }
+        }
+        return frame;
+    }
+}
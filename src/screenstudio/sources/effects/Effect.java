@@ -17,22 +17,49 @@
 package screenstudio.sources.effects;
 
 import com.jhlabs.image.*;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.DataBufferByte;
+import screenstudio.sources.blitter.Blitter;
 
 /**
+ * Applies the effect of a source into an output image owned by this
+ * instance, so each source should have its own.
+ *
+ * The output is only allocated when the size or the type of the source
+ * changes. Byte images supported by the Blitter are processed in their own
+ * layout by the Kernels, other images and the Kaleidoscope still go through
+ * Filters.jar.
+ *
+ * An effect chain runs after the effect, in a single pass that also takes
+ * the effect when it is one of its steps.
+ *
+ * Given the frame sequence of the source, the result is kept until the
+ * frame, the effect or the chain changes, so a static image with an effect
+ * costs no more than without.
  *
  * @author patrick
  */
 public class Effect {
 
-    BlockFilter blockFilter;
-    BlurFilter blurFilter;
-    BorderFilter borderFilter;
-    EdgeFilter edgeFilter;
-    GrayscaleFilter grayFilter;
-    KaleidoscopeFilter kaleidoscopeFilter;
-    SharpenFilter sharpenFilter;
-    
+    private static final int BLOCK_SIZE = 5;
+
+    private BufferedImage mOutput;
+    private BufferedImage mChainInput;
+    private BufferedImage mChainOutput;
+    private BufferedImageOp mFilter;
+    private eEffects mFilterEffect;
+    private FusedChain mFused;
+    private eEffects mFusedEffect;
+    // Last result and what it was computed from
+    private BufferedImage mLast;
+    private BufferedImage mLastInput;
+    private long mLastSequence = -1;
+    private eEffects mLastEffect;
+    private EffectChain mLastChain;
+
     public enum eEffects {
         None,
         Block,
@@ -43,58 +70,163 @@ public class Effect {
         Kaleidoscope,
     }
 
+    /**
+     * Apply an effect and a chain of effects, or return the previous result
+     * if nothing changed
+     *
+     * @param effect
+     * @param chain
+     * @param img
+     * @param sequence the frame sequence of the source for the content of
+     * img, -1 if unknown
+     * @return the image with the effects, img if there are none
+     */
+    public BufferedImage apply(eEffects effect, EffectChain chain, BufferedImage img, long sequence) {
+        if (sequence < 0 || sequence != mLastSequence || img != mLastInput || effect != mLastEffect || chain != mLastChain) {
+            mLast = apply(effect, chain, img);
+            mLastInput = img;
+            mLastSequence = sequence;
+            mLastEffect = effect;
+            mLastChain = chain;
+        }
+        return mLast;
+    }
+
+    /**
+     * Apply an effect, then a chain of effects
+     *
+     * @param effect
+     * @param chain
+     * @param img
+     * @return the image with the effects, img if there are none
+     */
+    public BufferedImage apply(eEffects effect, EffectChain chain, BufferedImage img) {
+        if (chain.isEmpty()) {
+            return apply(effect, img);
+        }
+        EffectChain.eOps op = getOp(effect);
+        if (mFused == null || mFused.getChain() != chain || mFusedEffect != effect) {
+            // The effect becomes the first step when the chain can run it
+            mFused = new FusedChain(op == null ? chain : chain.prepend(new EffectChain.Step(op)));
+            mFusedEffect = effect;
+        }
+        BufferedImage input = op == null ? apply(effect, img) : img;
+        if (!Blitter.isSupported(input)) {
+            mChainInput = getOutput(mChainInput, input.getWidth(), input.getHeight(), BufferedImage.TYPE_4BYTE_ABGR);
+            Graphics2D g = mChainInput.createGraphics();
+            g.setComposite(AlphaComposite.Src);
+            g.drawImage(input, 0, 0, null);
+            g.dispose();
+            input = mChainInput;
+        }
+        int w = input.getWidth();
+        int h = input.getHeight();
+        int srcBpp = input.getType() == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
+        int bpp = mFused.hasAlpha() ? 4 : srcBpp;
+        mChainOutput = getOutput(mChainOutput, w, h, bpp == 3 ? BufferedImage.TYPE_3BYTE_BGR : BufferedImage.TYPE_4BYTE_ABGR);
+        byte[] src = ((DataBufferByte) input.getRaster().getDataBuffer()).getData();
+        byte[] dst = ((DataBufferByte) mChainOutput.getRaster().getDataBuffer()).getData();
+        mFused.apply(src, srcBpp, dst, bpp, w, h, 0, h);
+        return mChainOutput;
+    }
+
+    /**
+     * @return the step of a chain doing the same as an effect, null if none
+     */
+    private static EffectChain.eOps getOp(eEffects effect) {
+        switch (effect) {
+            case Blur:
+                return EffectChain.eOps.Blur;
+            case Edge:
+                return EffectChain.eOps.Edge;
+            case Gray:
+                return EffectChain.eOps.Gray;
+            case Sharpen:
+                return EffectChain.eOps.Sharpen;
+            default:
+                return null;
+        }
+    }
+
     public BufferedImage apply(eEffects effect, BufferedImage img) {
-        BufferedImage retValue = img;
+        if (effect == eEffects.None) {
+            return img;
+        }
+        int w = img.getWidth();
+        int h = img.getHeight();
+        if (effect == eEffects.Kaleidoscope || !Blitter.isSupported(img)) {
+            int type = Blitter.isSupported(img) ? img.getType() : BufferedImage.TYPE_INT_ARGB;
+            mOutput = getOutput(mOutput, w, h, type);
+            BufferedImage out = mOutput;
+            getFilter(effect).filter(img, out);
+            return out;
+        }
+        mOutput = getOutput(mOutput, w, h, img.getType());
+        BufferedImage out = mOutput;
+        byte[] src = ((DataBufferByte) img.getRaster().getDataBuffer()).getData();
+        byte[] dst = ((DataBufferByte) out.getRaster().getDataBuffer()).getData();
+        int bpp = img.getType() == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
         switch (effect) {
-            case None:
-                retValue = img;
-                break;
             case Block:
-                retValue = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                blockFilter.filter(img, retValue);
-                break;
-            case Edge:
-                retValue = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                edgeFilter.filter(img, retValue);
+                Kernels.block(src, dst, w, h, bpp, BLOCK_SIZE, 0, h);
                 break;
             case Blur:
-                retValue = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                blurFilter.filter(img, retValue);
+                Kernels.blur(src, dst, w, h, bpp, 0, h);
                 break;
-            case Gray:
-                retValue = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                grayFilter.filter(img, retValue);
+            case Edge:
+                Kernels.edge(src, dst, w, h, bpp, 0, h);
                 break;
-            case Kaleidoscope:
-                retValue = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                kaleidoscopeFilter.filter(img, retValue);
+            case Gray:
+                Kernels.gray(src, dst, w, h, bpp, 0, h);
                 break;
             case Sharpen:
-                retValue = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
-                sharpenFilter.filter(img, retValue);
+                Kernels.sharpen(src, dst, w, h, bpp, 0, h);
                 break;
         }
-        return retValue;
+        return out;
     }
 
-    public Effect() {
-        blockFilter = new BlockFilter();
-        blockFilter.setBlockSize(5);
-        blurFilter = new BlurFilter();
-        borderFilter = new BorderFilter();
-        borderFilter.setBottomBorder(3);
-        borderFilter.setLeftBorder(3);
-        borderFilter.setRightBorder(3);
-        borderFilter.setTopBorder(3);
-
-        edgeFilter = new EdgeFilter();
-
-        grayFilter = new GrayscaleFilter();
-
-        kaleidoscopeFilter = new KaleidoscopeFilter();
-        kaleidoscopeFilter.setSides(6);
-        
-        sharpenFilter = new SharpenFilter();
+    /**
+     * @return the image, or a new one if the size or the type don't match
+     */
+    private static BufferedImage getOutput(BufferedImage image, int width, int height, int type) {
+        if (image == null || image.getWidth() != width || image.getHeight() != height || image.getType() != type) {
+            image = new BufferedImage(width, height, type);
+        }
+        return image;
     }
 
+    /**
+     * @return the Filters.jar implementation of an effect
+     */
+    private BufferedImageOp getFilter(eEffects effect) {
+        if (effect != mFilterEffect) {
+            switch (effect) {
+                case Block:
+                    BlockFilter block = new BlockFilter();
+                    block.setBlockSize(BLOCK_SIZE);
+                    mFilter = block;
+                    break;
+                case Blur:
+                    mFilter = new BlurFilter();
+                    break;
+                case Edge:
+                    mFilter = new EdgeFilter();
+                    break;
+                case Gray:
+                    mFilter = new GrayscaleFilter();
+                    break;
+                case Kaleidoscope:
+                    KaleidoscopeFilter kaleidoscope = new KaleidoscopeFilter();
+                    kaleidoscope.setSides(6);
+                    mFilter = kaleidoscope;
+                    break;
+                case Sharpen:
+                    mFilter = new SharpenFilter();
+                    break;
+            }
+            mFilterEffect = effect;
+        }
+        return mFilter;
+    }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.effects;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An ordered list of effects applied to a source after its main effect.
+ *
+ * A chain never changes once created, so it can be shared between the
+ * layout and the running sources. It is saved in the layout as text, for
+ * example "Gray;Brightness:20:1.2;Sharpen;Border".
+ *
+ * @author patrick
+ */
+public class EffectChain {
+
+    public static final EffectChain NONE = new EffectChain(new ArrayList<>());
+
+    /**
+     * Point operations change each pixel on its own, the others also read
+     * the 8 neighbours of the pixel
+     */
+    public enum eOps {
+        /**
+         * Luminance
+         */
+        Gray(true),
+        /**
+         * Value1: added to each color (-255 to 255), Value2: contrast
+         * around the middle gray (1 keeps it)
+         */
+        Brightness(true, 0, 1),
+        /**
+         * Value1: gamma (1 keeps the colors)
+         */
+        Gamma(true, 1),
+        /**
+         * Negative colors
+         */
+        Invert(true),
+        /**
+         * Value1: number of levels for each color (2 to 255)
+         */
+        Posterize(true, 4),
+        /**
+         * Value1: opacity of the source (0 to 1)
+         */
+        Alpha(true, 1),
+        /**
+         * Curve given by input=output points, for example
+         * "Lut:0=16:128=100:255=235", linear between the points
+         */
+        Lut(true),
+        Blur(false),
+        Sharpen(false),
+        Edge(false),
+        /**
+         * Value1: width in pixels, Value2: gray level of the frame (0 to
+         * 255). Painted over the edges, the size of the image is kept.
+         */
+        Border(false, 3, 0);
+
+        private final boolean mPoint;
+        private final float[] mDefaults;
+
+        private eOps(boolean point, float... defaults) {
+            mPoint = point;
+            mDefaults = defaults;
+        }
+
+        public boolean isPoint() {
+            return mPoint;
+        }
+    }
+
+    public static class Step {
+
+        private final eOps mOp;
+        private final float mValue1;
+        private final float mValue2;
+        // Input and output of each point of a Lut, by input
+        private final int[] mPoints;
+
+        public Step(eOps op) {
+            this(op, op.mDefaults.length > 0 ? op.mDefaults[0] : 0, op.mDefaults.length > 1 ? op.mDefaults[1] : 0);
+        }
+
+        public Step(eOps op, float value1, float value2) {
+            mOp = op;
+            mValue1 = value1;
+            mValue2 = value2;
+            mPoints = new int[]{0, 0, 255, 255};
+        }
+
+        /**
+         * A Lut step
+         *
+         * @param points input and output of each point, 0 to 255
+         */
+        public Step(int[] points) {
+            if (points.length < 2 || points.length % 2 != 0) {
+                throw new IllegalArgumentException("Lut needs input=output points");
+            }
+            mOp = eOps.Lut;
+            mValue1 = 0;
+            mValue2 = 0;
+            Integer[] order = new Integer[points.length / 2];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Integer.compare(points[a * 2], points[b * 2]));
+            mPoints = new int[points.length];
+            for (int i = 0; i < order.length; i++) {
+                mPoints[i * 2] = Math.max(0, Math.min(255, points[order[i] * 2]));
+                mPoints[i * 2 + 1] = Math.max(0, Math.min(255, points[order[i] * 2 + 1]));
+            }
+        }
+
+        public eOps getOp() {
+            return mOp;
+        }
+
+        public float getValue1() {
+            return mValue1;
+        }
+
+        public float getValue2() {
+            return mValue2;
+        }
+
+        /**
+         * @return the output of a Lut for a value
+         */
+        public int lookup(int v) {
+            int i = 2;
+            while (i < mPoints.length - 2 && v > mPoints[i]) {
+                i += 2;
+            }
+            if (v <= mPoints[0]) {
+                return mPoints[1];
+            }
+            if (v >= mPoints[mPoints.length - 2]) {
+                return mPoints[mPoints.length - 1];
+            }
+            int x0 = mPoints[i - 2];
+            int y0 = mPoints[i - 1];
+            int x1 = mPoints[i];
+            int y1 = mPoints[i + 1];
+            return x1 == x0 ? y1 : Math.round(y0 + (y1 - y0) * (v - x0) / (float) (x1 - x0));
+        }
+
+        @Override
+        public String toString() {
+            String text = mOp.name();
+            if (mOp == eOps.Lut) {
+                for (int i = 0; i < mPoints.length; i += 2) {
+                    text += ":" + mPoints[i] + "=" + mPoints[i + 1];
+                }
+            }
+            if (mOp.mDefaults.length > 0) {
+                text += ":" + format(mValue1);
+            }
+            if (mOp.mDefaults.length > 1) {
+                text += ":" + format(mValue2);
+            }
+            return text;
+        }
+
+        private static String format(float value) {
+            return value == (int) value ? "" + (int) value : "" + value;
+        }
+    }
+
+    private final List<Step> mSteps;
+
+    public EffectChain(List<Step> steps) {
+        mSteps = Collections.unmodifiableList(new ArrayList<>(steps));
+    }
+
+    public List<Step> getSteps() {
+        return mSteps;
+    }
+
+    public boolean isEmpty() {
+        return mSteps.isEmpty();
+    }
+
+    /**
+     * @param step
+     * @return a new chain starting with the step
+     */
+    public EffectChain prepend(Step step) {
+        ArrayList<Step> steps = new ArrayList<>();
+        steps.add(step);
+        steps.addAll(mSteps);
+        return new EffectChain(steps);
+    }
+
+    /**
+     * @param text steps separated by ";", values after the name separated
+     * by ":"
+     * @return the chain, NONE for an empty text
+     * @throws IllegalArgumentException for an unknown step or a bad value
+     */
+    public static EffectChain parse(String text) {
+        ArrayList<Step> steps = new ArrayList<>();
+        if (text != null) {
+            for (String item : text.split(";")) {
+                item = item.trim();
+                if (item.isEmpty()) {
+                    continue;
+                }
+                String[] values = item.split(":");
+                eOps op = eOps.valueOf(values[0].trim());
+                if (op == eOps.Lut && values.length > 1) {
+                    int[] points = new int[(values.length - 1) * 2];
+                    for (int i = 1; i < values.length; i++) {
+                        String[] point = values[i].split("=");
+                        if (point.length != 2) {
+                            throw new IllegalArgumentException("Lut point " + values[i] + " is not input=output");
+                        }
+                        points[i * 2 - 2] = Integer.parseInt(point[0].trim());
+                        points[i * 2 - 1] = Integer.parseInt(point[1].trim());
+                    }
+                    steps.add(new Step(points));
+                } else if (values.length == 1) {
+                    steps.add(new Step(op));
+                } else {
+                    float value1 = Float.parseFloat(values[1].trim());
+                    float value2 = values.length > 2 ? Float.parseFloat(values[2].trim()) : new Step(op).getValue2();
+                    steps.add(new Step(op, value1, value2));
+                }
+            }
+        }
+        return steps.isEmpty() ? NONE : new EffectChain(steps);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        for (Step step : mSteps) {
+            if (text.length() > 0) {
+                text.append(";");
+            }
+            text.append(step);
+        }
+        return text.toString();
+    }
+}
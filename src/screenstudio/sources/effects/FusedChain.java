@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.effects;
+
+import java.util.ArrayList;
+
+/**
+ * An effect chain compiled to run in a single pass over the image.
+ *
+ * The point operations between two 3x3 kernels are merged in lookup tables
+ * and applied while a row is written. Each 3x3 kernel reads its input from
+ * a buffer of 3 rows filled by the previous step, so a row of the source
+ * goes through the whole chain while the rows around it are still in the
+ * cache: the source is read once and the output written once, whatever the
+ * length of the chain. A border runs as a kernel, it only needs the number
+ * of its row.
+ *
+ * The row buffers belong to the instance, so it can only process one image
+ * at a time.
+ *
+ * @author patrick
+ */
+class FusedChain {
+
+    private final EffectChain mChain;
+    // Point operations before the first kernel, between kernels and after
+    // the last one
+    private final PointOps[] mPoints;
+    private final EffectChain.Step[] mKernels;
+    private final boolean mAlpha;
+    private byte[][] mRows;
+    // Image being processed
+    private byte[] mSrc;
+    private byte[] mDst;
+    private int mSrcBpp;
+    private int mBpp;
+    private int mWidth;
+    private int mHeight;
+    private int mY0;
+    private int mY1;
+
+    FusedChain(EffectChain chain) {
+        mChain = chain;
+        ArrayList<PointOps> points = new ArrayList<>();
+        ArrayList<EffectChain.Step> kernels = new ArrayList<>();
+        PointOps current = new PointOps();
+        boolean alpha = false;
+        for (EffectChain.Step step : chain.getSteps()) {
+            if (step.getOp().isPoint()) {
+                current.add(step);
+                alpha |= step.getOp() == EffectChain.eOps.Alpha;
+            } else {
+                points.add(current);
+                kernels.add(step);
+                current = new PointOps();
+            }
+        }
+        points.add(current);
+        mPoints = points.toArray(new PointOps[points.size()]);
+        mKernels = kernels.toArray(new EffectChain.Step[kernels.size()]);
+        mAlpha = alpha;
+    }
+
+    EffectChain getChain() {
+        return mChain;
+    }
+
+    /**
+     * @return true if the output needs an alpha channel even for an opaque
+     * source
+     */
+    boolean hasAlpha() {
+        return mAlpha;
+    }
+
+    /**
+     * Apply the chain to the rows y0 to y1 of the output
+     *
+     * @param src
+     * @param srcBpp 3 for BGR, 4 for ABGR
+     * @param dst
+     * @param bpp 3 for BGR, 4 for ABGR, at least srcBpp
+     * @param width
+     * @param height
+     * @param y0
+     * @param y1
+     */
+    void apply(byte[] src, int srcBpp, byte[] dst, int bpp, int width, int height, int y0, int y1) {
+        int stride = width * bpp;
+        if (mKernels.length > 0 && (mRows == null || mRows[0].length != stride * 3)) {
+            mRows = new byte[mKernels.length][stride * 3];
+        }
+        mSrc = src;
+        mDst = dst;
+        mSrcBpp = srcBpp;
+        mBpp = bpp;
+        mWidth = width;
+        mHeight = height;
+        mY0 = y0;
+        mY1 = y1;
+        // Each kernel needs one more row on both sides of its output
+        int first = Math.max(0, y0 - mKernels.length);
+        int last = Math.min(height - 1, y1 - 1 + mKernels.length);
+        for (int y = first; y <= last; y++) {
+            if (mKernels.length == 0) {
+                mPoints[0].apply(src, y * width * srcBpp, srcBpp, dst, y * stride, bpp, width);
+            } else {
+                mPoints[0].apply(src, y * width * srcBpp, srcBpp, mRows[0], (y % 3) * stride, bpp, width);
+                push(0, y);
+            }
+        }
+        mSrc = null;
+        mDst = null;
+    }
+
+    /**
+     * The row y of the input of a kernel is ready: compute the rows of its
+     * output that now have all their neighbours
+     */
+    private void push(int k, int y) {
+        int remaining = mKernels.length - k - 1;
+        // Rows of the output of this kernel needed by the next ones
+        int first = Math.max(0, mY0 - remaining);
+        int last = Math.min(mHeight - 1, mY1 - 1 + remaining);
+        if (y - 1 >= first && y - 1 <= last) {
+            run(k, y - 1);
+        }
+        if (y == mHeight - 1 && y >= first && y <= last) {
+            // The row below the last one is itself
+            run(k, y);
+        }
+    }
+
+    private void run(int k, int y) {
+        int stride = mWidth * mBpp;
+        byte[] rows = mRows[k];
+        int up = (Math.max(0, y - 1) % 3) * stride;
+        int row = (y % 3) * stride;
+        int down = (Math.min(mHeight - 1, y + 1) % 3) * stride;
+        byte[] dst;
+        int out;
+        if (k == mKernels.length - 1) {
+            dst = mDst;
+            out = y * stride;
+        } else {
+            dst = mRows[k + 1];
+            out = (y % 3) * stride;
+        }
+        switch (mKernels[k].getOp()) {
+            case Blur:
+                Kernels.blurRow(rows, up, row, down, dst, out, stride, mBpp);
+                break;
+            case Sharpen:
+                Kernels.sharpenRow(rows, up, row, down, dst, out, stride, mBpp);
+                break;
+            case Edge:
+                Kernels.edgeRow(rows, up, row, down, dst, out, stride, mBpp);
+                break;
+            case Border:
+                border(mKernels[k], y, rows, row, dst, out);
+                break;
+        }
+        // In place, the row is still in the cache
+        mPoints[k + 1].apply(dst, out, mBpp, dst, out, mBpp, mWidth);
+        if (k < mKernels.length - 1) {
+            push(k + 1, y);
+        }
+    }
+
+    /**
+     * Copy a row, painting the pixels within the border. The border is
+     * opaque.
+     */
+    private void border(EffectChain.Step step, int y, byte[] src, int row, byte[] dst, int out) {
+        int stride = mWidth * mBpp;
+        System.arraycopy(src, row, dst, out, stride);
+        int size = Math.max(0, Math.round(step.getValue1()));
+        byte gray = (byte) Math.max(0, Math.min(255, Math.round(step.getValue2())));
+        if (y < size || y >= mHeight - size) {
+            paint(dst, out, 0, mWidth, gray);
+        } else {
+            paint(dst, out, 0, Math.min(mWidth, size), gray);
+            paint(dst, out, Math.max(size, mWidth - size), mWidth, gray);
+        }
+    }
+
+    private void paint(byte[] dst, int out, int x0, int x1, byte gray) {
+        int o = mBpp - 3;
+        for (int i = out + x0 * mBpp; i < out + x1 * mBpp; i += mBpp) {
+            if (o == 1) {
+                dst[i] = (byte) 255;
+            }
+            dst[i + o] = gray;
+            dst[i + o + 1] = gray;
+            dst[i + o + 2] = gray;
+        }
+    }
+
+    /**
+     * Consecutive point operations merged in lookup tables
+     */
+    private static class PointOps {
+
+        private final byte[] mBefore = identity();
+        private boolean mGray = false;
+        private final byte[] mAfter = identity();
+        private final byte[] mAlpha = identity();
+        private boolean mIdentity = true;
+
+        private static byte[] identity() {
+            byte[] table = new byte[256];
+            for (int i = 0; i < 256; i++) {
+                table[i] = (byte) i;
+            }
+            return table;
+        }
+
+        private void add(EffectChain.Step step) {
+            mIdentity = false;
+            switch (step.getOp()) {
+                case Gray:
+                    // The gray of a gray is the same gray, the weights add
+                    // up to 256
+                    mGray = true;
+                    break;
+                case Alpha:
+                    float opacity = Math.max(0, Math.min(1, step.getValue1()));
+                    for (int i = 0; i < 256; i++) {
+                        mAlpha[i] = (byte) Math.round((mAlpha[i] & 0xFF) * opacity);
+                    }
+                    break;
+                default:
+                    // Colors after a gray stay gray
+                    byte[] table = mGray ? mAfter : mBefore;
+                    for (int i = 0; i < 256; i++) {
+                        table[i] = (byte) map(step, table[i] & 0xFF);
+                    }
+                    break;
+            }
+        }
+
+        private static int map(EffectChain.Step step, int v) {
+            double value;
+            switch (step.getOp()) {
+                case Brightness:
+                    value = (v - 128) * step.getValue2() + 128 + step.getValue1();
+                    break;
+                case Gamma:
+                    value = 255 * Math.pow(v / 255D, 1 / Math.max(0.01, step.getValue1()));
+                    break;
+                case Invert:
+                    value = 255 - v;
+                    break;
+                case Lut:
+                    value = step.lookup(v);
+                    break;
+                case Posterize:
+                    int levels = Math.max(2, Math.min(255, Math.round(step.getValue1())));
+                    value = Math.round(v * (levels - 1) / 255D) * 255D / (levels - 1);
+                    break;
+                default:
+                    value = v;
+                    break;
+            }
+            return (int) Math.max(0, Math.min(255, Math.round(value)));
+        }
+
+        /**
+         * Apply the operations to a row, can be done in place
+         */
+        private void apply(byte[] src, int in, int srcBpp, byte[] dst, int out, int bpp, int width) {
+            if (mIdentity && srcBpp == bpp) {
+                if (src != dst || in != out) {
+                    System.arraycopy(src, in, dst, out, width * bpp);
+                }
+                return;
+            }
+            byte[] before = mBefore;
+            byte[] after = mAfter;
+            byte[] alpha = mAlpha;
+            boolean gray = mGray;
+            int c = srcBpp - 3;
+            int o = bpp - 3;
+            byte opaque = alpha[255];
+            for (int x = 0; x < width; x++, in += srcBpp, out += bpp) {
+                int b = before[src[in + c] & 0xFF] & 0xFF;
+                int g = before[src[in + c + 1] & 0xFF] & 0xFF;
+                int r = before[src[in + c + 2] & 0xFF] & 0xFF;
+                if (o == 1) {
+                    dst[out] = c == 1 ? alpha[src[in] & 0xFF] : opaque;
+                }
+                if (gray) {
+                    byte l = after[(r * 77 + g * 151 + b * 28) >> 8];
+                    dst[out + o] = l;
+                    dst[out + o + 1] = l;
+                    dst[out + o + 2] = l;
+                } else {
+                    dst[out + o] = (byte) b;
+                    dst[out + o + 1] = (byte) g;
+                    dst[out + o + 2] = (byte) r;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.effects;
+
+import screenstudio.sources.blitter.Pixels;
+
+/**
+ * Effects working directly on the bytes of TYPE_3BYTE_BGR (bpp 3) and
+ * TYPE_4BYTE_ABGR (bpp 4) images.
+ *
+ * The output has the same layout as the input, so the compositor can draw it
+ * without any conversion. Source and destination must be different arrays.
+ * All the kernels are integer only, do not allocate and only write the rows
+ * between y0 and y1 so they can run on stripes of the same image in
+ * parallel. Pixels outside of the image are the nearest edge pixels.
+ *
+ * The 3x3 kernels also work on a single row of pixels given the offsets of
+ * the rows above and below, for the rolling row buffers of the effect
+ * chains.
+ *
+ * @author patrick
+ */
+public class Kernels {
+
+    /**
+     * Luminance, with the weights of the previous Filters.jar grayscale
+     */
+    public static void gray(byte[] src, byte[] dst, int width, int height, int bpp, int y0, int y1) {
+        Pixels.getDefault().gray(src, dst, y0 * width * bpp, (y1 - y0) * width, bpp);
+    }
+
+    /**
+     * Pixelate: each block of size x size pixels takes the color of its top
+     * left pixel, like the Filters.jar block filter
+     */
+    public static void block(byte[] src, byte[] dst, int width, int height, int bpp, int size, int y0, int y1) {
+        int stride = width * bpp;
+        for (int y = y0; y < y1; y++) {
+            int row = y * stride;
+            int top = (y / size) * size * stride;
+            for (int bx = 0; bx < stride; bx += size * bpp) {
+                int end = Math.min(stride, bx + size * bpp);
+                for (int j = bx; j < end; j += bpp) {
+                    for (int c = 0; c < bpp; c++) {
+                        dst[row + j + c] = src[top + bx + c];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 3x3 blur (1 2 1 / 2 2 2 / 1 2 1) / 14 like the Filters.jar blur,
+     * alpha included so that the edges of a shape are softened too
+     */
+    public static void blur(byte[] src, byte[] dst, int width, int height, int bpp, int y0, int y1) {
+        int stride = width * bpp;
+        for (int y = y0; y < y1; y++) {
+            int row = y * stride;
+            blurRow(src, Math.max(0, y - 1) * stride, row, Math.min(height - 1, y + 1) * stride, dst, row, stride, bpp);
+        }
+    }
+
+    /**
+     * Blur one row
+     *
+     * @param src
+     * @param up offset of the row above in src
+     * @param row offset of the row in src
+     * @param down offset of the row below in src
+     * @param dst
+     * @param out offset of the row in dst
+     * @param stride bytes per row
+     * @param bpp
+     */
+    static void blurRow(byte[] src, int up, int row, int down, byte[] dst, int out, int stride, int bpp) {
+        int last = stride - bpp;
+        for (int j = 0; j < Math.min(bpp, last); j++) {
+            dst[out + j] = blur(src, up, row, down, j, j, j + bpp);
+        }
+        if (last > bpp) {
+            Pixels.getDefault().blur(src, up + bpp, row + bpp, down + bpp, dst, out + bpp, last - bpp, bpp);
+        }
+        for (int j = Math.max(0, last); j < stride; j++) {
+            dst[out + j] = blur(src, up, row, down, j, j < bpp ? j : j - bpp, j);
+        }
+    }
+
+    private static byte blur(byte[] src, int up, int row, int down, int j, int l, int r) {
+        int corners = (src[up + l] & 0xFF) + (src[up + r] & 0xFF) + (src[down + l] & 0xFF) + (src[down + r] & 0xFF);
+        int sides = (src[up + j] & 0xFF) + (src[down + j] & 0xFF) + (src[row + l] & 0xFF) + (src[row + r] & 0xFF) + (src[row + j] & 0xFF);
+        // 4681 / 65536 = 1 / 14
+        return (byte) (((corners + (sides << 1)) * 4681 + 32768) >> 16);
+    }
+
+    /**
+     * 3x3 sharpen (center 9/5, sides -1/5), alpha is kept
+     */
+    public static void sharpen(byte[] src, byte[] dst, int width, int height, int bpp, int y0, int y1) {
+        int stride = width * bpp;
+        for (int y = y0; y < y1; y++) {
+            int row = y * stride;
+            sharpenRow(src, Math.max(0, y - 1) * stride, row, Math.min(height - 1, y + 1) * stride, dst, row, stride, bpp);
+        }
+    }
+
+    /**
+     * Sharpen one row, see blurRow()
+     */
+    static void sharpenRow(byte[] src, int up, int row, int down, byte[] dst, int out, int stride, int bpp) {
+        int last = stride - bpp;
+        for (int j = 0; j < Math.min(bpp, last); j++) {
+            dst[out + j] = sharpen(src, up, row, down, j, j, j + bpp);
+        }
+        for (int j = bpp; j < last; j++) {
+            dst[out + j] = sharpen(src, up, row, down, j, j - bpp, j + bpp);
+        }
+        for (int j = Math.max(0, last); j < stride; j++) {
+            dst[out + j] = sharpen(src, up, row, down, j, j < bpp ? j : j - bpp, j);
+        }
+        if (bpp == 4) {
+            copyAlpha(src, row, dst, out, stride);
+        }
+    }
+
+    private static byte sharpen(byte[] src, int up, int row, int down, int j, int l, int r) {
+        int v = (src[row + j] & 0xFF) * 9
+                - (src[up + j] & 0xFF) - (src[down + j] & 0xFF)
+                - (src[row + l] & 0xFF) - (src[row + r] & 0xFF);
+        // 13108 / 65536 = 1 / 5
+        return v <= 0 ? 0 : clamp((v * 13108) >> 16);
+    }
+
+    /**
+     * Sobel edge detection on each color, scaled like the Filters.jar edge
+     * filter, alpha is kept
+     */
+    public static void edge(byte[] src, byte[] dst, int width, int height, int bpp, int y0, int y1) {
+        int stride = width * bpp;
+        for (int y = y0; y < y1; y++) {
+            int row = y * stride;
+            edgeRow(src, Math.max(0, y - 1) * stride, row, Math.min(height - 1, y + 1) * stride, dst, row, stride, bpp);
+        }
+    }
+
+    /**
+     * Edges of one row one row, see blurRow()
+     */
+    static void edgeRow(byte[] src, int up, int row, int down, byte[] dst, int out, int stride, int bpp) {
+        int last = stride - bpp;
+        for (int j = 0; j < Math.min(bpp, last); j++) {
+            dst[out + j] = edge(src, up, row, down, j, j, j + bpp);
+        }
+        for (int j = bpp; j < last; j++) {
+            dst[out + j] = edge(src, up, row, down, j, j - bpp, j + bpp);
+        }
+        for (int j = Math.max(0, last); j < stride; j++) {
+            dst[out + j] = edge(src, up, row, down, j, j < bpp ? j : j - bpp, j);
+        }
+        if (bpp == 4) {
+            copyAlpha(src, row, dst, out, stride);
+        }
+    }
+
+    private static byte edge(byte[] src, int up, int row, int down, int j, int l, int r) {
+        int ul = src[up + l] & 0xFF;
+        int ur = src[up + r] & 0xFF;
+        int dl = src[down + l] & 0xFF;
+        int dr = src[down + r] & 0xFF;
+        int gx = Math.abs(ur + ((src[row + r] & 0xFF) << 1) + dr - ul - ((src[row + l] & 0xFF) << 1) - dl);
+        int gy = Math.abs(dl + ((src[down + j] & 0xFF) << 1) + dr - ul - ((src[up + j] & 0xFF) << 1) - ur);
+        // sqrt(gx^2 + gy^2) / 1.8, with max + min / 2 for the square root
+        // (within 12%)
+        int max = Math.max(gx, gy);
+        int min = Math.min(gx, gy);
+        // 18205 / 65536 = 5 / 18
+        return clamp((((max << 1) + min) * 18205) >> 16);
+    }
+
+    private static void copyAlpha(byte[] src, int row, byte[] dst, int out, int stride) {
+        for (int i = 0; i < stride; i += 4) {
+            dst[out + i] = src[row + i];
+        }
+    }
+
+    private static byte clamp(int v) {
+        return (byte) (v < 0 ? 0 : (v > 255 ? 255 : v));
+    }
+}
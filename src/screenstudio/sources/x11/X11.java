@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.x11;
+
+import com.sun.jna.Callback;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.Structure;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.NativeLongByReference;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The few Xlib, MIT-SHM and XFixes functions used by the desktop capture.
+ *
+ * The libraries are loaded on first use and are optional: XFixes is only
+ * needed to draw the mouse pointer, XDamage and XFixes for the damage capture.
+ *
+ * @author patrick
+ */
+public class X11 {
+
+    public static final int ZPixmap = 2;
+    public static final int IPC_PRIVATE = 0;
+    public static final int IPC_CREAT = 01000;
+    public static final int IPC_RMID = 0;
+    public static final NativeLong AllPlanes = new NativeLong(-1);
+    public static final NativeLong None = new NativeLong(0);
+    public static final int XDamageReportNonEmpty = 3;
+    /**
+     * Size of an XEvent, a union padded to 24 longs
+     */
+    public static final int XEventSize = 24 * NativeLong.SIZE;
+    /**
+     * Size of an XRectangle: short x, y and unsigned short width, height
+     */
+    public static final int XRectangleSize = 8;
+
+    private static Xlib mXlib;
+    private static XShm mXShm;
+    private static XFixes mXFixes;
+    private static XDamage mXDamage;
+    private static LibC mLibC;
+    private static boolean mLoaded = false;
+
+    public interface Xlib extends Library {
+
+        Pointer XOpenDisplay(String name);
+
+        int XCloseDisplay(Pointer display);
+
+        int XDefaultScreen(Pointer display);
+
+        Pointer XDefaultVisual(Pointer display, int screen);
+
+        int XDefaultDepth(Pointer display, int screen);
+
+        int XDisplayWidth(Pointer display, int screen);
+
+        int XDisplayHeight(Pointer display, int screen);
+
+        NativeLong XRootWindow(Pointer display, int screen);
+
+        int XSync(Pointer display, boolean discard);
+
+        int XFlush(Pointer display);
+
+        int XFree(Pointer data);
+
+        int XDestroyImage(XImage image);
+
+        Pointer XSetErrorHandler(XErrorHandler handler);
+
+        Pointer XSetErrorHandler(Pointer handler);
+
+        int XPending(Pointer display);
+
+        int XNextEvent(Pointer display, Pointer event);
+
+        Pointer XCreateGC(Pointer display, NativeLong drawable, NativeLong mask, Pointer values);
+
+        int XFreeGC(Pointer display, Pointer gc);
+
+        int XSetForeground(Pointer display, Pointer gc, NativeLong color);
+
+        int XFillRectangle(Pointer display, NativeLong drawable, Pointer gc, int x, int y, int width, int height);
+
+        boolean XQueryPointer(Pointer display, NativeLong window, NativeLongByReference root, NativeLongByReference child, IntByReference rootX, IntByReference rootY, IntByReference winX, IntByReference winY, IntByReference mask);
+    }
+
+    public interface XShm extends Library {
+
+        boolean XShmQueryExtension(Pointer display);
+
+        XImage XShmCreateImage(Pointer display, Pointer visual, int depth, int format, Pointer data, XShmSegmentInfo info, int width, int height);
+
+        boolean XShmAttach(Pointer display, XShmSegmentInfo info);
+
+        boolean XShmDetach(Pointer display, XShmSegmentInfo info);
+
+        boolean XShmGetImage(Pointer display, NativeLong drawable, XImage image, int x, int y, NativeLong planes);
+    }
+
+    public interface XFixes extends Library {
+
+        XFixesCursorImage XFixesGetCursorImage(Pointer display);
+
+        NativeLong XFixesCreateRegion(Pointer display, Pointer rectangles, int count);
+
+        void XFixesDestroyRegion(Pointer display, NativeLong region);
+
+        Pointer XFixesFetchRegion(Pointer display, NativeLong region, IntByReference count);
+    }
+
+    public interface XDamage extends Library {
+
+        boolean XDamageQueryExtension(Pointer display, IntByReference eventBase, IntByReference errorBase);
+
+        NativeLong XDamageCreate(Pointer display, NativeLong drawable, int level);
+
+        void XDamageDestroy(Pointer display, NativeLong damage);
+
+        void XDamageSubtract(Pointer display, NativeLong damage, NativeLong repair, NativeLong parts);
+    }
+
+    public interface LibC extends Library {
+
+        int shmget(int key, NativeLong size, int flags);
+
+        Pointer shmat(int id, Pointer address, int flags);
+
+        int shmdt(Pointer address);
+
+        int shmctl(int id, int command, Pointer buffer);
+    }
+
+    public interface XErrorHandler extends Callback {
+
+        int apply(Pointer display, Pointer event);
+    }
+
+    public static class XImage extends Structure {
+
+        public int width;
+        public int height;
+        public int xoffset;
+        public int format;
+        public Pointer data;
+        public int byte_order;
+        public int bitmap_unit;
+        public int bitmap_bit_order;
+        public int bitmap_pad;
+        public int depth;
+        public int bytes_per_line;
+        public int bits_per_pixel;
+        public NativeLong red_mask;
+        public NativeLong green_mask;
+        public NativeLong blue_mask;
+        public Pointer obdata;
+        public Pointer[] funcs = new Pointer[6];
+
+        @Override
+        protected List<String> getFieldOrder() {
+            return Arrays.asList("width", "height", "xoffset", "format", "data", "byte_order", "bitmap_unit", "bitmap_bit_order", "bitmap_pad", "depth", "bytes_per_line", "bits_per_pixel", "red_mask", "green_mask", "blue_mask", "obdata", "funcs");
+        }
+    }
+
+    public static class XShmSegmentInfo extends Structure {
+
+        public NativeLong shmseg;
+        public int shmid;
+        public Pointer shmaddr;
+        public boolean readOnly;
+
+        @Override
+        protected List<String> getFieldOrder() {
+            return Arrays.asList("shmseg", "shmid", "shmaddr", "readOnly");
+        }
+    }
+
+    public static class XFixesCursorImage extends Structure {
+
+        public short x;
+        public short y;
+        public short width;
+        public short height;
+        public short xhot;
+        public short yhot;
+        public NativeLong cursor_serial;
+        public Pointer pixels;
+
+        @Override
+        protected List<String> getFieldOrder() {
+            return Arrays.asList("x", "y", "width", "height", "xhot", "yhot", "cursor_serial", "pixels");
+        }
+    }
+
+    /**
+     * Load the libraries once
+     *
+     * @return true if Xlib and MIT-SHM are available
+     */
+    public static synchronized boolean load() {
+        if (!mLoaded) {
+            mLoaded = true;
+            try {
+                mXlib = (Xlib) Native.loadLibrary("X11", Xlib.class);
+                mXShm = (XShm) Native.loadLibrary("Xext", XShm.class);
+                mLibC = (LibC) Native.loadLibrary("c", LibC.class);
+            } catch (UnsatisfiedLinkError | NoClassDefFoundError ex) {
+                System.out.println("X11 shared memory capture not available: " + ex.getMessage());
+                mXlib = null;
+                mXShm = null;
+                mLibC = null;
+            }
+            try {
+                mXFixes = (XFixes) Native.loadLibrary("Xfixes", XFixes.class);
+            } catch (UnsatisfiedLinkError | NoClassDefFoundError ex) {
+                mXFixes = null;
+            }
+            try {
+                mXDamage = (XDamage) Native.loadLibrary("Xdamage", XDamage.class);
+            } catch (UnsatisfiedLinkError | NoClassDefFoundError ex) {
+                mXDamage = null;
+            }
+        }
+        return mXlib != null;
+    }
+
+    public static Xlib getXlib() {
+        return load() ? mXlib : null;
+    }
+
+    public static XShm getXShm() {
+        return load() ? mXShm : null;
+    }
+
+    public static LibC getLibC() {
+        return load() ? mLibC : null;
+    }
+
+    /**
+     * @return XFixes or null if the library is not installed
+     */
+    public static XFixes getXFixes() {
+        load();
+        return mXFixes;
+    }
+
+    /**
+     * @return XDamage or null if the library is not installed
+     */
+    public static XDamage getXDamage() {
+        load();
+        return mXDamage;
+    }
+}
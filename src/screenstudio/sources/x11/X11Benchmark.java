@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.x11;
+
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import java.awt.Rectangle;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+/**
+ * Compares the full screen grab with the damage driven grab on a scripted
+ * workload, drawn on the root window by a second connection.
+ *
+ * Meant to run on a dedicated server: Xvfb :99 -screen 0 1920x1080x24 &
+ * then X11Benchmark :99 [seconds fps]
+ *
+ * @author patrick
+ */
+public class X11Benchmark {
+
+    private enum Workload {
+        Idle,
+        Typing,
+        Scrolling,
+        Video
+    }
+
+    public static void main(String[] args) throws Exception {
+        String display = args.length > 0 ? args[0] : System.getenv("DISPLAY");
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int fps = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        if (!X11Capture.isSupported(display)) {
+            System.out.println("MIT-SHM not available on " + display);
+            return;
+        }
+        boolean damage = X11Damage.isAvailable();
+        if (!damage) {
+            System.out.println("XDamage not available, full grabs only");
+        }
+        for (Workload w : Workload.values()) {
+            run(display, w, false, seconds, fps);
+            if (damage) {
+                run(display, w, true, seconds, fps);
+            }
+        }
+    }
+
+    private static void run(String display, Workload workload, boolean damage, int seconds, int fps) throws Exception {
+        X11.Xlib x = X11.getXlib();
+        Pointer dpy = x.XOpenDisplay(display);
+        int screen = x.XDefaultScreen(dpy);
+        NativeLong root = x.XRootWindow(dpy, screen);
+        Rectangle area = new Rectangle(0, 0, x.XDisplayWidth(dpy, screen), x.XDisplayHeight(dpy, screen));
+        X11Capture capture = new X11Capture(display, area);
+        capture.open();
+        capture.setDrawPointer(false);
+        X11Damage tracker = null;
+        if (damage) {
+            tracker = new X11Damage(capture);
+            tracker.open();
+        }
+        byte[] bgr = new byte[area.width * area.height * 3];
+        capture.grab(bgr);
+        if (tracker != null) {
+            tracker.poll();
+        }
+        Pointer gc = x.XCreateGC(dpy, root, new NativeLong(0), null);
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long frames = seconds * fps;
+        long changed = 0;
+        long pixels = 0;
+        long cpu = 0;
+        long start = System.nanoTime();
+        for (long i = 0; i < frames; i++) {
+            draw(x, dpy, root, gc, workload, i, area);
+            long t = threads.getCurrentThreadCpuTime();
+            if (tracker == null) {
+                capture.grab(bgr);
+                changed++;
+                pixels += area.width * area.height;
+            } else {
+                List<Rectangle> rects = tracker.poll();
+                for (Rectangle r : rects) {
+                    capture.grab(bgr, r);
+                    pixels += r.width * r.height;
+                }
+                if (!rects.isEmpty()) {
+                    changed++;
+                }
+            }
+            cpu += threads.getCurrentThreadCpuTime() - t;
+            long next = start + (i + 1) * 1000000000L / fps;
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+            }
+        }
+        x.XFreeGC(dpy, gc);
+        x.XCloseDisplay(dpy);
+        if (tracker != null) {
+            tracker.close();
+        }
+        capture.close();
+        System.out.println(String.format("%-10s %-7s: %6.2f ms cpu/frame, %5d/%d frames changed, %8.1f Mpixels grabbed",
+                workload, damage ? "damage" : "full", cpu / 1000000D / frames, changed, frames, pixels / 1000000D));
+    }
+
+    /**
+     * Draw one step of the workload
+     */
+    private static void draw(X11.Xlib x, Pointer dpy, NativeLong root, Pointer gc, Workload workload, long step, Rectangle area) {
+        x.XSetForeground(dpy, gc, new NativeLong((step * 0x10101L) & 0xFFFFFF));
+        switch (workload) {
+            case Idle:
+                return;
+            case Typing:
+                // One character cell every frame along a line
+                int column = (int) (step % (area.width / 10));
+                int line = (int) ((step / (area.width / 10)) % (area.height / 20));
+                x.XFillRectangle(dpy, root, gc, column * 10, line * 20, 10, 20);
+                break;
+            case Scrolling:
+                // The text area of an editor
+                x.XFillRectangle(dpy, root, gc, area.width / 4, area.height / 8, area.width / 2, area.height * 3 / 4);
+                break;
+            case Video:
+                x.XFillRectangle(dpy, root, gc, 0, 0, area.width, area.height);
+                break;
+        }
+        x.XSync(dpy, false);
+    }
+}
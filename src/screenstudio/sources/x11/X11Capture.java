@@ -0,0 +1,371 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.x11;
+
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.NativeLongByReference;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Grabs an area of an X11 display with XShmGetImage.
+ *
+ * The X server copies the pixels into a shared memory segment mapped in the
+ * JVM, they are converted to BGR straight from there. Only 24/32 bits visuals
+ * are supported, which is what every local X server uses. All the calls must
+ * be made from the same thread.
+ *
+ * @author patrick
+ */
+public class X11Capture {
+
+    private static final HashMap<String, Boolean> SUPPORTED = new HashMap<>();
+    private static volatile int mLastError = 0;
+    // Kept in a field so that the callback is not garbage collected
+    private static final X11.XErrorHandler ERRORS = (display, event) -> {
+        // XErrorEvent: int type, Display*, XID resourceid, ulong serial, uchar error_code
+        mLastError = event.getByte(Pointer.SIZE * 2 + NativeLong.SIZE * 2) & 0xFF;
+        return 0;
+    };
+
+    private final String mDisplayName;
+    private final Rectangle mArea;
+    private Pointer mDisplay;
+    private NativeLong mRoot;
+    private X11.XImage mImage;
+    private X11.XShmSegmentInfo mInfo;
+    private ByteBuffer mPixels;
+    private byte[] mRow;
+    private X11.XImage mPart;
+    private boolean mAttached = false;
+    private boolean mDrawPointer = true;
+    private final Rectangle mPointer = new Rectangle();
+    private long mPointerSerial = -1;
+    private int[] mPointerPixels;
+
+    /**
+     * @param display the X display, like ":0.0"
+     * @param area the area of the root window to grab
+     */
+    public X11Capture(String display, Rectangle area) {
+        mDisplayName = display;
+        mArea = new Rectangle(area);
+    }
+
+    /**
+     * Check once per display that the libraries are installed, that the
+     * server supports MIT-SHM and that it can attach our segments (it can't
+     * if the server is remote)
+     *
+     * @param display
+     * @return true if the display can be captured
+     */
+    public static synchronized boolean isSupported(String display) {
+        Boolean supported = SUPPORTED.get(display);
+        if (supported == null) {
+            supported = false;
+            if (X11.load()) {
+                X11Capture test = new X11Capture(display, new Rectangle(0, 0, 1, 1));
+                try {
+                    test.open();
+                    supported = true;
+                } catch (IOException ex) {
+                    System.out.println("X11 shared memory capture not available on " + display + ": " + ex.getMessage());
+                } finally {
+                    test.close();
+                }
+            }
+            SUPPORTED.put(display, supported);
+        }
+        return supported;
+    }
+
+    /**
+     * Connect to the display and attach the shared memory image
+     *
+     * @throws IOException if the display or MIT-SHM is not available
+     */
+    public void open() throws IOException {
+        if (!X11.load()) {
+            throw new IOException("libX11 or libXext not found");
+        }
+        X11.Xlib x = X11.getXlib();
+        X11.XShm shm = X11.getXShm();
+        X11.LibC libc = X11.getLibC();
+        mDisplay = x.XOpenDisplay(mDisplayName);
+        if (mDisplay == null) {
+            throw new IOException("Cannot open display " + mDisplayName);
+        }
+        if (!shm.XShmQueryExtension(mDisplay)) {
+            throw new IOException("MIT-SHM not supported");
+        }
+        int screen = x.XDefaultScreen(mDisplay);
+        mRoot = x.XRootWindow(mDisplay, screen);
+        mInfo = new X11.XShmSegmentInfo();
+        mImage = shm.XShmCreateImage(mDisplay, x.XDefaultVisual(mDisplay, screen), x.XDefaultDepth(mDisplay, screen), X11.ZPixmap, null, mInfo, mArea.width, mArea.height);
+        if (mImage == null) {
+            throw new IOException("Cannot create shared image");
+        }
+        if (mImage.bits_per_pixel != 32 || mImage.byte_order != 0 || mImage.red_mask.longValue() != 0xFF0000L || mImage.blue_mask.longValue() != 0xFFL) {
+            throw new IOException("Unsupported visual: " + mImage.bits_per_pixel + " bits per pixel");
+        }
+        int size = mImage.bytes_per_line * mImage.height;
+        mInfo.shmid = libc.shmget(X11.IPC_PRIVATE, new NativeLong(size), X11.IPC_CREAT | 0600);
+        if (mInfo.shmid == -1) {
+            throw new IOException("shmget failed");
+        }
+        mInfo.shmaddr = libc.shmat(mInfo.shmid, null, 0);
+        if (mInfo.shmaddr == null || Pointer.nativeValue(mInfo.shmaddr) == -1) {
+            mInfo.shmaddr = null;
+            throw new IOException("shmat failed");
+        }
+        mInfo.readOnly = false;
+        mImage.data = mInfo.shmaddr;
+        mImage.writeField("data");
+        // A remote server fails with BadAccess instead of returning false...
+        Pointer previous = x.XSetErrorHandler(ERRORS);
+        mLastError = 0;
+        boolean attached = shm.XShmAttach(mDisplay, mInfo);
+        x.XSync(mDisplay, false);
+        x.XSetErrorHandler(previous);
+        // The segment is freed once both sides have detached
+        libc.shmctl(mInfo.shmid, X11.IPC_RMID, null);
+        if (!attached || mLastError != 0) {
+            throw new IOException("XShmAttach failed (error " + mLastError + ")");
+        }
+        mAttached = true;
+        mImage.setAutoSynch(false);
+        mPixels = mInfo.shmaddr.getByteBuffer(0, size);
+        mRow = new byte[mArea.width * 4];
+    }
+
+    /**
+     * Grab the area
+     *
+     * @param bgr the frame data, width*height*3 bytes
+     * @return false if the server could not copy the area
+     */
+    public boolean grab(byte[] bgr) {
+        if (!X11.getXShm().XShmGetImage(mDisplay, mRoot, mImage, mArea.x, mArea.y, X11.AllPlanes)) {
+            return false;
+        }
+        convert(bgr, new Rectangle(mArea.getSize()), mImage.bytes_per_line);
+        if (mDrawPointer) {
+            updatePointer();
+            drawPointer(bgr);
+        }
+        return true;
+    }
+
+    /**
+     * Grab a part of the area only, without the mouse pointer. The pixels
+     * go through the start of the same shared segment.
+     *
+     * @param bgr the frame data, width*height*3 bytes for the whole area
+     * @param rect the part to update, relative to the area
+     * @return false if the server could not copy the part
+     */
+    public boolean grab(byte[] bgr, Rectangle rect) {
+        if (mPart == null) {
+            // Same format, segment (obdata) and functions as the whole image
+            mPart = new X11.XImage();
+            mPart.xoffset = mImage.xoffset;
+            mPart.format = mImage.format;
+            mPart.data = mImage.data;
+            mPart.byte_order = mImage.byte_order;
+            mPart.bitmap_unit = mImage.bitmap_unit;
+            mPart.bitmap_bit_order = mImage.bitmap_bit_order;
+            mPart.bitmap_pad = mImage.bitmap_pad;
+            mPart.depth = mImage.depth;
+            mPart.bits_per_pixel = mImage.bits_per_pixel;
+            mPart.red_mask = mImage.red_mask;
+            mPart.green_mask = mImage.green_mask;
+            mPart.blue_mask = mImage.blue_mask;
+            mPart.obdata = mImage.obdata;
+            mPart.funcs = mImage.funcs.clone();
+            mPart.setAutoSynch(false);
+        }
+        mPart.width = rect.width;
+        mPart.height = rect.height;
+        mPart.bytes_per_line = rect.width * 4;
+        mPart.write();
+        if (!X11.getXShm().XShmGetImage(mDisplay, mRoot, mPart, mArea.x + rect.x, mArea.y + rect.y, X11.AllPlanes)) {
+            return false;
+        }
+        convert(bgr, rect, mPart.bytes_per_line);
+        return true;
+    }
+
+    /**
+     * Convert the BGRX pixels at the start of the segment to a part of the
+     * BGR frame
+     */
+    private void convert(byte[] bgr, Rectangle rect, int stride) {
+        int length = rect.width * 4;
+        for (int y = 0; y < rect.height; y++) {
+            mPixels.position(y * stride);
+            mPixels.get(mRow, 0, length);
+            int d = ((rect.y + y) * mArea.width + rect.x) * 3;
+            for (int s = 0; s < length; s += 4) {
+                bgr[d++] = mRow[s];
+                bgr[d++] = mRow[s + 1];
+                bgr[d++] = mRow[s + 2];
+            }
+        }
+    }
+
+    /**
+     * @return the position of the mouse on the display or null if the
+     * pointer is on another screen
+     */
+    public Point getPointer() {
+        IntByReference x = new IntByReference();
+        IntByReference y = new IntByReference();
+        if (X11.getXlib().XQueryPointer(mDisplay, mRoot, new NativeLongByReference(), new NativeLongByReference(), x, y, new IntByReference(), new IntByReference(), new IntByReference())) {
+            return new Point(x.getValue(), y.getValue());
+        }
+        return null;
+    }
+
+    /**
+     * Read the position and the image of the mouse pointer. Requires XFixes.
+     *
+     * @return true if the pointer moved or changed since the last call
+     */
+    public boolean updatePointer() {
+        X11.XFixes fixes = X11.getXFixes();
+        if (fixes == null) {
+            return false;
+        }
+        X11.XFixesCursorImage cursor = fixes.XFixesGetCursorImage(mDisplay);
+        if (cursor == null) {
+            return false;
+        }
+        int left = cursor.x - cursor.xhot;
+        int top = cursor.y - cursor.yhot;
+        long serial = cursor.cursor_serial.longValue();
+        boolean changed = left != mPointer.x || top != mPointer.y || serial != mPointerSerial;
+        if (serial != mPointerSerial || mPointerPixels == null) {
+            mPointer.setSize(cursor.width & 0xFFFF, cursor.height & 0xFFFF);
+            mPointerPixels = new int[mPointer.width * mPointer.height];
+            for (int i = 0; i < mPointerPixels.length; i++) {
+                // Premultiplied ARGB in an unsigned long per pixel
+                mPointerPixels[i] = (int) cursor.pixels.getNativeLong((long) i * NativeLong.SIZE).longValue();
+            }
+            mPointerSerial = serial;
+        }
+        mPointer.setLocation(left, top);
+        X11.getXlib().XFree(cursor.getPointer());
+        return changed;
+    }
+
+    /**
+     * Blend the mouse pointer read by updatePointer() over the frame, like
+     * ffmpeg does with -draw_mouse
+     *
+     * @param bgr
+     */
+    public void drawPointer(byte[] bgr) {
+        if (mPointerPixels == null) {
+            return;
+        }
+        int left = mPointer.x - mArea.x;
+        int top = mPointer.y - mArea.y;
+        int width = mPointer.width;
+        for (int y = Math.max(0, -top); y < mPointer.height && top + y < mArea.height; y++) {
+            for (int x = Math.max(0, -left); x < width && left + x < mArea.width; x++) {
+                int argb = mPointerPixels[y * width + x];
+                int a = argb >>> 24;
+                if (a == 0) {
+                    continue;
+                }
+                int d = ((top + y) * mArea.width + left + x) * 3;
+                int inv = 255 - a;
+                bgr[d] = (byte) Math.min(255, (argb & 0xFF) + ((bgr[d] & 0xFF) * inv + 127) / 255);
+                bgr[d + 1] = (byte) Math.min(255, ((argb >> 8) & 0xFF) + ((bgr[d + 1] & 0xFF) * inv + 127) / 255);
+                bgr[d + 2] = (byte) Math.min(255, ((argb >> 16) & 0xFF) + ((bgr[d + 2] & 0xFF) * inv + 127) / 255);
+            }
+        }
+    }
+
+    /**
+     * @return the area covered by the mouse pointer on the display
+     */
+    public Rectangle getPointerBounds() {
+        return new Rectangle(mPointer);
+    }
+
+    public void setDrawPointer(boolean value) {
+        mDrawPointer = value;
+    }
+
+    public Rectangle getArea() {
+        return mArea;
+    }
+
+    /**
+     * Move the grabbed area, its size can't change
+     *
+     * @param x
+     * @param y
+     */
+    public void setLocation(int x, int y) {
+        mArea.setLocation(x, y);
+    }
+
+    Pointer getDisplay() {
+        return mDisplay;
+    }
+
+    NativeLong getRoot() {
+        return mRoot;
+    }
+
+    /**
+     * Detach the shared memory and close the display connection
+     */
+    public void close() {
+        X11.Xlib x = X11.getXlib();
+        if (mAttached) {
+            X11.getXShm().XShmDetach(mDisplay, mInfo);
+            x.XSync(mDisplay, false);
+            mAttached = false;
+        }
+        mPart = null;
+        if (mImage != null) {
+            // The data is the shared segment, detached below
+            mImage.data = null;
+            mImage.write();
+            x.XDestroyImage(mImage);
+            mImage = null;
+        }
+        if (mInfo != null && mInfo.shmaddr != null) {
+            X11.getLibC().shmdt(mInfo.shmaddr);
+        }
+        mInfo = null;
+        mPixels = null;
+        if (mDisplay != null) {
+            x.XCloseDisplay(mDisplay);
+            mDisplay = null;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.sources.x11;
+
+import com.sun.jna.Memory;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.IntByReference;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tracks the parts of the root window that changed, with the XDamage
+ * extension, on the display connection of a capture.
+ *
+ * The damage is accumulated by the server and collected at each poll(), so
+ * the events themselves are only drained. Must be used from the thread of
+ * the capture.
+ *
+ * @author patrick
+ */
+public class X11Damage {
+
+    private final X11Capture mCapture;
+    private NativeLong mDamage;
+    private NativeLong mRegion;
+    private final Memory mEvent = new Memory(X11.XEventSize);
+
+    public X11Damage(X11Capture capture) {
+        mCapture = capture;
+    }
+
+    /**
+     * @return true if libXdamage and libXfixes are installed
+     */
+    public static boolean isAvailable() {
+        return X11.load() && X11.getXDamage() != null && X11.getXFixes() != null;
+    }
+
+    /**
+     * Start tracking the damage of the root window. The capture must be
+     * open.
+     *
+     * @throws IOException if the server doesn't support XDamage
+     */
+    public void open() throws IOException {
+        if (!isAvailable()) {
+            throw new IOException("libXdamage or libXfixes not found");
+        }
+        Pointer display = mCapture.getDisplay();
+        if (!X11.getXDamage().XDamageQueryExtension(display, new IntByReference(), new IntByReference())) {
+            throw new IOException("XDamage not supported");
+        }
+        mDamage = X11.getXDamage().XDamageCreate(display, mCapture.getRoot(), X11.XDamageReportNonEmpty);
+        mRegion = X11.getXFixes().XFixesCreateRegion(display, null, 0);
+        X11.getXlib().XSync(display, false);
+    }
+
+    /**
+     * Collect the damage since the last call
+     *
+     * @return the changed rectangles, relative to the area of the capture
+     * and clipped to it, empty if nothing changed
+     */
+    public List<Rectangle> poll() {
+        Pointer display = mCapture.getDisplay();
+        X11.Xlib x = X11.getXlib();
+        while (x.XPending(display) > 0) {
+            x.XNextEvent(display, mEvent);
+        }
+        X11.getXDamage().XDamageSubtract(display, mDamage, X11.None, mRegion);
+        IntByReference count = new IntByReference();
+        Pointer rects = X11.getXFixes().XFixesFetchRegion(display, mRegion, count);
+        ArrayList<Rectangle> list = new ArrayList<>();
+        if (rects == null) {
+            return list;
+        }
+        Rectangle area = mCapture.getArea();
+        for (int i = 0; i < count.getValue(); i++) {
+            long o = (long) i * X11.XRectangleSize;
+            Rectangle r = new Rectangle(rects.getShort(o), rects.getShort(o + 2), rects.getShort(o + 4) & 0xFFFF, rects.getShort(o + 6) & 0xFFFF);
+            r = r.intersection(area);
+            if (!r.isEmpty()) {
+                r.translate(-area.x, -area.y);
+                list.add(r);
+            }
+        }
+        x.XFree(rects);
+        return list;
+    }
+
+    /**
+     * Stop tracking, before closing the capture
+     */
+    public void close() {
+        Pointer display = mCapture.getDisplay();
+        if (display == null) {
+            return;
+        }
+        if (mDamage != null) {
+            X11.getXDamage().XDamageDestroy(display, mDamage);
+            mDamage = null;
+        }
+        if (mRegion != null) {
+            X11.getXFixes().XFixesDestroyRegion(display, mRegion);
+            mRegion = null;
+        }
+    }
+}
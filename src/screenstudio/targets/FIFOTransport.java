@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.targets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import screenstudio.sources.Screen;
+
+/**
+ * ffmpeg reads a named pipe created with mkfifo
+ *
+ * @author patrick
+ */
+public class FIFOTransport implements FrameTransport {
+
+    private final File mPath;
+    private volatile FileOutputStream mOutput = null;
+    private volatile boolean mClosed = false;
+
+    public FIFOTransport() throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Named pipes are not supported");
+        }
+        mPath = File.createTempFile("screenstudio", ".fifo");
+        mPath.delete();
+        try {
+            Process p = new ProcessBuilder("mkfifo", mPath.getAbsolutePath()).start();
+            if (p.waitFor() != 0) {
+                throw new IOException("mkfifo failed for " + mPath);
+            }
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    public static boolean isSupported() {
+        return !Screen.isWindows();
+    }
+
+    @Override
+    public String getInput() {
+        return mPath.getAbsolutePath();
+    }
+
+    @Override
+    public void open() throws IOException {
+        // Blocks until ffmpeg opens the other end...
+        FileOutputStream out = new FileOutputStream(mPath);
+        if (mClosed) {
+            out.close();
+        } else {
+            mOutput = out;
+        }
+    }
+
+    @Override
+    public void attach(Process process) {
+    }
+
+    @Override
+    public WritableByteChannel getChannel() {
+        FileOutputStream out = mOutput;
+        return out == null ? null : out.getChannel();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        if (mOutput != null) {
+            mOutput.close();
+        } else if (mPath.exists()) {
+            // The encoder never opened the pipe, unblock open()
+            new FileInputStream(mPath).close();
+        }
+        mPath.delete();
+    }
+}
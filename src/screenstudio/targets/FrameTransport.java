@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.targets;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The way raw frames are sent from the compositor to the encoder process
+ *
+ * @author patrick
+ */
+public interface FrameTransport {
+
+    /**
+     * Time given to the encoder to connect, in milliseconds
+     */
+    int CONNECT_TIMEOUT = 30000;
+
+    /**
+     * @return the input to give to ffmpeg with -i
+     */
+    String getInput();
+
+    /**
+     * Wait for the encoder to connect. Called from the pipe thread.
+     *
+     * @throws IOException a SocketTimeoutException if the encoder doesn't
+     * connect within CONNECT_TIMEOUT
+     */
+    void open() throws IOException;
+
+    /**
+     * Called once the encoder process is started
+     *
+     * @param process
+     */
+    void attach(Process process);
+
+    /**
+     * @return the output channel or null if the encoder is not connected yet
+     */
+    WritableByteChannel getChannel();
+
+    void close() throws IOException;
+}
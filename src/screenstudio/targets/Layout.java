@@ -46,6 +46,7 @@ import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 import screenstudio.encoder.FFMpeg;
 import screenstudio.sources.effects.Effect;
+import screenstudio.sources.effects.EffectChain;
 import screenstudio.sources.transitions.Transition;
 
 /**
@@ -265,6 +266,12 @@ public class Layout {
             case Custom:
                 nodeName = "custom";
                 break;
+            case Video:
+                nodeName = "video";
+                break;
+            case Stream:
+                nodeName = "stream";
+                break;
         }
         Node node = document.createElement(nodeName);
         Node capx = document.createAttribute("capturex");
@@ -342,6 +349,37 @@ public class Layout {
         
         node.getAttributes().setNamedItem(capx);
         node.getAttributes().setNamedItem(capy);
+        if (source.getCaptureFPS() > 0) {
+            Node captureFPS = document.createAttribute("fps");
+            captureFPS.setNodeValue("" + source.getCaptureFPS());
+            node.getAttributes().setNamedItem(captureFPS);
+        }
+        if (source.getType() == SourceType.Desktop) {
+            Node followMouse = document.createAttribute("followmouse");
+            followMouse.setNodeValue("" + source.isFollowMouse());
+            node.getAttributes().setNamedItem(followMouse);
+        }
+        if (source.getType() == SourceType.Webcam) {
+            Node greenScreen = document.createAttribute("greenscreen");
+            greenScreen.setNodeValue("" + source.isGreenScreen());
+            node.getAttributes().setNamedItem(greenScreen);
+            Node sensitivity = document.createAttribute("sensitivity");
+            sensitivity.setNodeValue("" + source.getGreenSensitivity());
+            node.getAttributes().setNamedItem(sensitivity);
+        }
+        if (source.getType() == SourceType.Video) {
+            Node loop = document.createAttribute("loop");
+            loop.setNodeValue("" + source.isLoop());
+            node.getAttributes().setNamedItem(loop);
+            Node offset = document.createAttribute("offset");
+            offset.setNodeValue("" + source.getOffset());
+            node.getAttributes().setNamedItem(offset);
+        }
+        if (source.getType() == SourceType.Stream) {
+            Node buffer = document.createAttribute("buffer");
+            buffer.setNodeValue("" + source.getBuffer());
+            node.getAttributes().setNamedItem(buffer);
+        }
         node.getAttributes().setNamedItem(id);
         node.getAttributes().setNamedItem(type);
         node.getAttributes().setNamedItem(foreg);
@@ -352,6 +390,11 @@ public class Layout {
         node.getAttributes().setNamedItem(transitionStart);
         node.getAttributes().setNamedItem(transitionStop);
         node.getAttributes().setNamedItem(effectFilter);
+        if (!source.getEffectChain().isEmpty()) {
+            Node effects = document.createAttribute("effects");
+            effects.setNodeValue(source.getEffectChain().toString());
+            node.getAttributes().setNamedItem(effects);
+        }
         node.getAttributes().setNamedItem(backgroundAreaColor);
         node.getAttributes().setNamedItem(fontSize);
         root.appendChild(node);
@@ -385,6 +428,9 @@ public class Layout {
                 s.setCaptureX(0);
                 s.setCaptureY(0);
             }
+            if (n.getAttributes().getNamedItem("followmouse") != null) {
+                s.setFollowMouse(Boolean.parseBoolean(n.getAttributes().getNamedItem("followmouse").getNodeValue()));
+            }
             if (n.getAttributes().getNamedItem("start") != null) {
                 s.setStartTime(Long.parseLong(n.getAttributes().getNamedItem("start").getNodeValue()));
                 s.setEndTime(Long.parseLong(n.getAttributes().getNamedItem("end").getNodeValue()));
@@ -398,6 +444,12 @@ public class Layout {
             } else {
                 s.setEffect(Effect.eEffects.None);
             }
+            if (n.getAttributes().getNamedItem("effects") != null) {
+                s.setEffectChain(parseEffectChain(n.getAttributes().getNamedItem("effects").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("fps") != null) {
+                s.setCaptureFPS(Integer.parseInt(n.getAttributes().getNamedItem("fps").getNodeValue()));
+            }
             if (n.getAttributes().getNamedItem("fontsize") != null) {
                 s.setFontSize(Integer.parseInt(n.getAttributes().getNamedItem("fontsize").getNodeValue()));
             } else {
@@ -454,6 +506,12 @@ public class Layout {
             } else {
                 s.setEffect(Effect.eEffects.None);
             }
+            if (n.getAttributes().getNamedItem("effects") != null) {
+                s.setEffectChain(parseEffectChain(n.getAttributes().getNamedItem("effects").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("fps") != null) {
+                s.setCaptureFPS(Integer.parseInt(n.getAttributes().getNamedItem("fps").getNodeValue()));
+            }
             if (n.getAttributes().getNamedItem("fontsize") != null) {
                 s.setFontSize(Integer.parseInt(n.getAttributes().getNamedItem("fontsize").getNodeValue()));
             } else {
@@ -503,6 +561,16 @@ public class Layout {
             } else {
                 s.setEffect(Effect.eEffects.None);
             }
+            if (n.getAttributes().getNamedItem("effects") != null) {
+                s.setEffectChain(parseEffectChain(n.getAttributes().getNamedItem("effects").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("fps") != null) {
+                s.setCaptureFPS(Integer.parseInt(n.getAttributes().getNamedItem("fps").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("greenscreen") != null) {
+                s.setGreenScreen(Boolean.parseBoolean(n.getAttributes().getNamedItem("greenscreen").getNodeValue()));
+                s.setGreenSensitivity(Integer.parseInt(n.getAttributes().getNamedItem("sensitivity").getNodeValue()));
+            }
             sources[i] = s;
             if (n.getAttributes().getNamedItem("fontsize") != null) {
                 s.setFontSize(Integer.parseInt(n.getAttributes().getNamedItem("fontsize").getNodeValue()));
@@ -521,6 +589,8 @@ public class Layout {
     public ArrayList<Source> getSources() {
         ArrayList<Source> list = new ArrayList<>();
         list.addAll(Arrays.asList(getImages()));
+        list.addAll(Arrays.asList(getVideos()));
+        list.addAll(Arrays.asList(getStreams()));
         list.addAll(Arrays.asList(getWebcams()));
         list.addAll(Arrays.asList(getDesktops()));
         list.addAll(Arrays.asList(getLabels()));
@@ -547,6 +617,18 @@ public class Layout {
         }
     }
 
+    /**
+     * @return the chain, NONE if the text is not valid
+     */
+    private static EffectChain parseEffectChain(String text) {
+        try {
+            return EffectChain.parse(text);
+        } catch (IllegalArgumentException ex) {
+            Logger.getLogger(Layout.class.getName()).log(Level.WARNING, "Invalid effects " + text + ", ignored", ex);
+            return EffectChain.NONE;
+        }
+    }
+
     private Source[] getImages() {
         NodeList nodes = document.getElementsByTagName("image");
         Source[] sources = new Source[nodes.getLength()];
@@ -581,6 +663,131 @@ public class Layout {
             } else {
                 s.setEffect(Effect.eEffects.None);
             }
+            if (n.getAttributes().getNamedItem("effects") != null) {
+                s.setEffectChain(parseEffectChain(n.getAttributes().getNamedItem("effects").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("fps") != null) {
+                s.setCaptureFPS(Integer.parseInt(n.getAttributes().getNamedItem("fps").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("fontsize") != null) {
+                s.setFontSize(Integer.parseInt(n.getAttributes().getNamedItem("fontsize").getNodeValue()));
+            } else {
+                s.setFontSize(20);
+            }
+            if (n.getAttributes().getNamedItem("bgAreaColor") != null) {
+                s.setBackgroundColor(Integer.parseInt(n.getAttributes().getNamedItem("bgAreaColor").getNodeValue()));
+            } else {
+                s.setBackgroundColor(0);
+            }
+            sources[i] = s;
+        }
+        return sources;
+    }
+
+    private Source[] getVideos() {
+        NodeList nodes = document.getElementsByTagName("video");
+        Source[] sources = new Source[nodes.getLength()];
+        for (int i = 0; i < sources.length; i++) {
+            Source s = new Source(0);
+            s.setType(SourceType.Video);
+            Node n = nodes.item(i);
+            s.setID(n.getAttributes().getNamedItem("id").getNodeValue());
+
+            if (n.getAttributes().getNamedItem("x") != null) {
+                loadView(s, n);
+            } else {
+                // Load multiple views...
+                for (int j = 0;j < n.getChildNodes().getLength();j++){
+                    Node view = n.getChildNodes().item(j);
+                    if (view.getNodeName().equals("view")){
+                        loadView(s, view);
+                    }
+                }
+            }
+
+            if (n.getAttributes().getNamedItem("start") != null) {
+                s.setStartTime(Long.parseLong(n.getAttributes().getNamedItem("start").getNodeValue()));
+                s.setEndTime(Long.parseLong(n.getAttributes().getNamedItem("end").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("transstart") != null) {
+                s.setTransitionStart(Transition.NAMES.valueOf(n.getAttributes().getNamedItem("transstart").getNodeValue()));
+                s.setTransitionStop(Transition.NAMES.valueOf(n.getAttributes().getNamedItem("transstop").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("effect") != null) {
+                s.setEffect(Effect.eEffects.valueOf(n.getAttributes().getNamedItem("effect").getNodeValue()));
+            } else {
+                s.setEffect(Effect.eEffects.None);
+            }
+            if (n.getAttributes().getNamedItem("effects") != null) {
+                s.setEffectChain(parseEffectChain(n.getAttributes().getNamedItem("effects").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("loop") != null) {
+                s.setLoop(Boolean.parseBoolean(n.getAttributes().getNamedItem("loop").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("offset") != null) {
+                s.setOffset(Long.parseLong(n.getAttributes().getNamedItem("offset").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("fps") != null) {
+                s.setCaptureFPS(Integer.parseInt(n.getAttributes().getNamedItem("fps").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("fontsize") != null) {
+                s.setFontSize(Integer.parseInt(n.getAttributes().getNamedItem("fontsize").getNodeValue()));
+            } else {
+                s.setFontSize(20);
+            }
+            if (n.getAttributes().getNamedItem("bgAreaColor") != null) {
+                s.setBackgroundColor(Integer.parseInt(n.getAttributes().getNamedItem("bgAreaColor").getNodeValue()));
+            } else {
+                s.setBackgroundColor(0);
+            }
+            sources[i] = s;
+        }
+        return sources;
+    }
+
+    private Source[] getStreams() {
+        NodeList nodes = document.getElementsByTagName("stream");
+        Source[] sources = new Source[nodes.getLength()];
+        for (int i = 0; i < sources.length; i++) {
+            Source s = new Source(0);
+            s.setType(SourceType.Stream);
+            Node n = nodes.item(i);
+            s.setID(n.getAttributes().getNamedItem("id").getNodeValue());
+
+            if (n.getAttributes().getNamedItem("x") != null) {
+                loadView(s, n);
+            } else {
+                // Load multiple views...
+                for (int j = 0;j < n.getChildNodes().getLength();j++){
+                    Node view = n.getChildNodes().item(j);
+                    if (view.getNodeName().equals("view")){
+                        loadView(s, view);
+                    }
+                }
+            }
+
+            if (n.getAttributes().getNamedItem("start") != null) {
+                s.setStartTime(Long.parseLong(n.getAttributes().getNamedItem("start").getNodeValue()));
+                s.setEndTime(Long.parseLong(n.getAttributes().getNamedItem("end").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("transstart") != null) {
+                s.setTransitionStart(Transition.NAMES.valueOf(n.getAttributes().getNamedItem("transstart").getNodeValue()));
+                s.setTransitionStop(Transition.NAMES.valueOf(n.getAttributes().getNamedItem("transstop").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("effect") != null) {
+                s.setEffect(Effect.eEffects.valueOf(n.getAttributes().getNamedItem("effect").getNodeValue()));
+            } else {
+                s.setEffect(Effect.eEffects.None);
+            }
+            if (n.getAttributes().getNamedItem("effects") != null) {
+                s.setEffectChain(parseEffectChain(n.getAttributes().getNamedItem("effects").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("buffer") != null) {
+                s.setBuffer(Long.parseLong(n.getAttributes().getNamedItem("buffer").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("fps") != null) {
+                s.setCaptureFPS(Integer.parseInt(n.getAttributes().getNamedItem("fps").getNodeValue()));
+            }
             if (n.getAttributes().getNamedItem("fontsize") != null) {
                 s.setFontSize(Integer.parseInt(n.getAttributes().getNamedItem("fontsize").getNodeValue()));
             } else {
@@ -630,6 +837,12 @@ public class Layout {
             } else {
                 s.setEffect(Effect.eEffects.None);
             }
+            if (n.getAttributes().getNamedItem("effects") != null) {
+                s.setEffectChain(parseEffectChain(n.getAttributes().getNamedItem("effects").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("fps") != null) {
+                s.setCaptureFPS(Integer.parseInt(n.getAttributes().getNamedItem("fps").getNodeValue()));
+            }
             if (n.getAttributes().getNamedItem("fontsize") != null) {
                 s.setFontSize(Integer.parseInt(n.getAttributes().getNamedItem("fontsize").getNodeValue()));
             } else {
@@ -687,6 +900,12 @@ public class Layout {
             } else {
                 s.setEffect(Effect.eEffects.None);
             }
+            if (n.getAttributes().getNamedItem("effects") != null) {
+                s.setEffectChain(parseEffectChain(n.getAttributes().getNamedItem("effects").getNodeValue()));
+            }
+            if (n.getAttributes().getNamedItem("fps") != null) {
+                s.setCaptureFPS(Integer.parseInt(n.getAttributes().getNamedItem("fps").getNodeValue()));
+            }
             if (n.getAttributes().getNamedItem("fontsize") != null) {
                 s.setFontSize(new Integer(n.getAttributes().getNamedItem("fontsize").getNodeValue()));
             } else {
@@ -17,9 +17,9 @@
 package screenstudio.targets;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -28,43 +28,126 @@ import java.util.logging.Logger;
  * @author patri
  */
 public class Pipe implements Runnable{
-    private int mPort = 0;
-    private OutputStream mOutput = null;
-    private Socket mSocket = null;
-    private ServerSocket mServer = null;
+
+    public enum Transport {
+        TCP,
+        Unix,
+        FIFO,
+        Stdin,
+    }
+
+    private final Transport mType;
+    private final FrameTransport mTransport;
+
     public Pipe() throws IOException{
-        mServer = new ServerSocket(0);
-        mPort = mServer.getLocalPort();
+        this(Transport.TCP);
+    }
+
+    public Pipe(Transport type) throws IOException{
+        mType = type;
+        switch (type) {
+            case Unix:
+                mTransport = new UnixSocketTransport();
+                break;
+            case FIFO:
+                mTransport = new FIFOTransport();
+                break;
+            case Stdin:
+                mTransport = new StdinTransport();
+                break;
+            default:
+                mTransport = new TCPTransport();
+                break;
+        }
+    }
+
+    /**
+     * @param type
+     * @return true if the transport can be used on this system
+     */
+    public static boolean isSupported(Transport type) {
+        switch (type) {
+            case Unix:
+                return UnixSocketTransport.isSupported();
+            case FIFO:
+                return FIFOTransport.isSupported();
+            default:
+                return true;
+        }
+    }
+
+    public Transport getTransport() {
+        return mType;
     }
 
     public String getServer(){
-        return "tcp://127.0.0.1:" + mPort;
+        return mTransport.getInput();
     }
+
+    /**
+     * Give the encoder process to the transport once it is started
+     *
+     * @param process
+     */
+    public void attach(Process process) {
+        mTransport.attach(process);
+    }
+
     public void write(byte[] data) throws IOException{
-        if (mOutput != null){
-            mOutput.write(data);
+        write(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Write a buffer, use direct buffers to avoid a copy
+     *
+     * @param data
+     * @throws IOException
+     */
+    public void write(ByteBuffer data) throws IOException{
+        WritableByteChannel channel = mTransport.getChannel();
+        if (channel != null){
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
         }
     }
-    
-    public void close() throws IOException{
-        if (mOutput != null){
-            mOutput.close();
-            mSocket.close();
+
+    /**
+     * Write the slices of a frame with a single gathering write when the
+     * channel supports it
+     *
+     * @param data
+     * @throws IOException
+     */
+    public void write(ByteBuffer[] data) throws IOException{
+        WritableByteChannel channel = mTransport.getChannel();
+        if (channel == null){
+            return;
         }
-        if (mServer != null){
-            mServer.close();
-            mServer = null;
+        if (channel instanceof GatheringByteChannel) {
+            long remaining = 0;
+            for (ByteBuffer b : data) {
+                remaining += b.remaining();
+            }
+            while (remaining > 0) {
+                remaining -= ((GatheringByteChannel) channel).write(data);
+            }
+        } else {
+            for (ByteBuffer b : data) {
+                while (b.hasRemaining()) {
+                    channel.write(b);
+                }
+            }
         }
     }
+    
+    public void close() throws IOException{
+        mTransport.close();
+    }
     @Override
     public void run() {
         try {
-            mServer.setSoTimeout(30000);
-            mPort = mServer.getLocalPort();
-            mSocket = mServer.accept();
-            mOutput = mSocket.getOutputStream();
-            mServer.close();
-            mServer = null;
+            mTransport.open();
         } catch (IOException ex) {
             Logger.getLogger(Pipe.class.getName()).log(Level.SEVERE, null, ex);
         }
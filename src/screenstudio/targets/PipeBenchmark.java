@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.targets;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+
+/**
+ * Measures the throughput of each frame transport.
+ *
+ * A child JVM plays the role of ffmpeg and drains the input. Usage:
+ * PipeBenchmark [width height frames]
+ *
+ * @author patrick
+ */
+public class PipeBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("--read")) {
+            read(args[1]);
+            return;
+        }
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+        int frames = args.length > 2 ? Integer.parseInt(args[2]) : 600;
+        // Same layout as the compositor frames: native memory split in stripes
+        ByteBuffer frame = ByteBuffer.allocateDirect(width * height * 3);
+        ByteBuffer[] stripes = new ByteBuffer[8];
+        for (int i = 0; i < stripes.length; i++) {
+            frame.limit((i + 1) * (frame.capacity() / stripes.length)).position(i * (frame.capacity() / stripes.length));
+            stripes[i] = frame.slice();
+        }
+        for (Pipe.Transport t : Pipe.Transport.values()) {
+            if (!Pipe.isSupported(t)) {
+                System.out.println(t + " : not supported");
+                continue;
+            }
+            Pipe pipe = new Pipe(t);
+            Thread listener = new Thread(pipe);
+            listener.start();
+            ArrayList<String> cmd = new ArrayList<>();
+            cmd.add(new File(System.getProperty("java.home"), "bin/java").getAbsolutePath());
+            cmd.add("-cp");
+            cmd.add(System.getProperty("java.class.path"));
+            cmd.add(PipeBenchmark.class.getName());
+            cmd.add("--read");
+            cmd.add(pipe.getServer());
+            Process reader = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).redirectOutput(ProcessBuilder.Redirect.INHERIT).start();
+            pipe.attach(reader);
+            listener.join(30000);
+            long start = System.nanoTime();
+            for (int i = 0; i < frames; i++) {
+                for (ByteBuffer b : stripes) {
+                    b.clear();
+                }
+                pipe.write(stripes);
+            }
+            pipe.close();
+            reader.waitFor();
+            double seconds = (System.nanoTime() - start) / 1000000000D;
+            long bytes = 0;
+            for (ByteBuffer b : stripes) {
+                bytes += b.capacity();
+            }
+            double mb = (double) bytes * frames / 1024D / 1024D;
+            System.out.println(String.format("%-6s: %8.1f MB/s, %7.1f fps at %dx%d", t, mb / seconds, frames / seconds, width, height));
+        }
+    }
+
+    private static void read(String input) throws Exception {
+        InputStream in;
+        if (input.startsWith("tcp://")) {
+            String[] hostPort = input.substring(6).split(":");
+            in = new Socket(hostPort[0], Integer.parseInt(hostPort[1])).getInputStream();
+        } else if (input.startsWith("unix:")) {
+            SocketChannel channel = SocketChannel.open(UnixSocketTransport.getAddress(new File(input.substring(5))));
+            in = Channels.newInputStream(channel);
+        } else if (input.equals("pipe:0")) {
+            in = System.in;
+        } else {
+            in = new FileInputStream(input);
+        }
+        byte[] buffer = new byte[1024 * 1024];
+        try {
+            while (in.read(buffer) != -1) {
+                // Draining...
+            }
+        } catch (IOException ex) {
+            // Writer closed the connection
+        }
+        in.close();
+    }
+}
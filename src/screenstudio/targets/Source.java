@@ -18,6 +18,7 @@ package screenstudio.targets;
 
 import java.util.ArrayList;
 import screenstudio.sources.effects.Effect;
+import screenstudio.sources.effects.EffectChain;
 import screenstudio.sources.transitions.Transition;
 
 public class Source {
@@ -27,6 +28,13 @@ public class Source {
     public String ID;
     public int CaptureX;
     public int CaptureY;
+    public boolean FollowMouse = false;
+    public int CaptureFPS = 0;
+    public boolean Loop = false;
+    public long Offset = 0;
+    public long Buffer = 500;
+    public boolean GreenScreen = false;
+    public int GreenSensitivity = 1;
     public int foregroundColor;
     public int backgroundColor;
     public int backgroundAreaColor;
@@ -38,6 +46,7 @@ public class Source {
     public Transition.NAMES transitionStart = Transition.NAMES.None;
     public Transition.NAMES transitionStop = Transition.NAMES.None;
     public Effect.eEffects effect = Effect.eEffects.None;
+    public EffectChain effects = EffectChain.NONE;
     public ArrayList<View> Views = new ArrayList<>();
     public int CurrentViewIndex = -1;
 
@@ -132,6 +141,104 @@ public class Source {
         this.CaptureY = CaptureY;
     }
 
+    /**
+     * @return true if a desktop capture follows the mouse
+     */
+    public boolean isFollowMouse() {
+        return FollowMouse;
+    }
+
+    /**
+     * @param FollowMouse the FollowMouse to set
+     */
+    public void setFollowMouse(boolean FollowMouse) {
+        this.FollowMouse = FollowMouse;
+    }
+
+    /**
+     * @return the capture frame rate, 0 for the output frame rate
+     */
+    public int getCaptureFPS() {
+        return CaptureFPS;
+    }
+
+    /**
+     * @param CaptureFPS the CaptureFPS to set
+     */
+    public void setCaptureFPS(int CaptureFPS) {
+        this.CaptureFPS = Math.max(0, CaptureFPS);
+    }
+
+    /**
+     * @return true if a video starts over at the end of the file
+     */
+    public boolean isLoop() {
+        return Loop;
+    }
+
+    /**
+     * @param Loop the Loop to set
+     */
+    public void setLoop(boolean Loop) {
+        this.Loop = Loop;
+    }
+
+    /**
+     * @return where a video starts in the file, in milliseconds
+     */
+    public long getOffset() {
+        return Offset;
+    }
+
+    /**
+     * @param Offset the Offset to set
+     */
+    public void setOffset(long Offset) {
+        this.Offset = Math.max(0, Offset);
+    }
+
+    /**
+     * @return the delay of the jitter buffer of a stream, in milliseconds
+     */
+    public long getBuffer() {
+        return Buffer;
+    }
+
+    /**
+     * @param Buffer the Buffer to set
+     */
+    public void setBuffer(long Buffer) {
+        this.Buffer = Math.max(0, Buffer);
+    }
+
+    /**
+     * @return true if the green background of a webcam is removed
+     */
+    public boolean isGreenScreen() {
+        return GreenScreen;
+    }
+
+    /**
+     * @param GreenScreen the GreenScreen to set
+     */
+    public void setGreenScreen(boolean GreenScreen) {
+        this.GreenScreen = GreenScreen;
+    }
+
+    /**
+     * @return how much of the colors around green are removed, from 1 to 10
+     */
+    public int getGreenSensitivity() {
+        return GreenSensitivity;
+    }
+
+    /**
+     * @param GreenSensitivity the GreenSensitivity to set
+     */
+    public void setGreenSensitivity(int GreenSensitivity) {
+        this.GreenSensitivity = Math.max(1, Math.min(10, GreenSensitivity));
+    }
+
     /**
      * @return the foregroundColor
      */
@@ -239,6 +346,17 @@ public class Source {
         this.effect = e;
     }
 
+    /**
+     * @return the effects applied after the effect
+     */
+    public EffectChain getEffectChain() {
+        return effects;
+    }
+
+    public void setEffectChain(EffectChain chain) {
+        this.effects = chain;
+    }
+
     /**
      * @return the Views
      */
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.targets;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Frames are written to the standard input of the encoder process. ffmpeg
+ * stops at the end of the stream instead of reading "q" from its input.
+ *
+ * The input of a process is only available as a stream: every write is
+ * copied through a heap array, the direct slices of a frame are not written
+ * as they are. TCPTransport and UnixSocketTransport don't have this copy.
+ *
+ * @author patrick
+ */
+public class StdinTransport implements FrameTransport {
+
+    private volatile WritableByteChannel mChannel = null;
+
+    @Override
+    public String getInput() {
+        return "pipe:0";
+    }
+
+    @Override
+    public void open() throws IOException {
+    }
+
+    @Override
+    public void attach(Process process) {
+        mChannel = Channels.newChannel(process.getOutputStream());
+    }
+
+    @Override
+    public WritableByteChannel getChannel() {
+        return mChannel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel != null) {
+            mChannel.close();
+        }
+    }
+}
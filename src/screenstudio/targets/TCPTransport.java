@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.targets;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * ffmpeg connects to a local TCP port, works everywhere
+ *
+ * @author patrick
+ */
+public class TCPTransport implements FrameTransport {
+
+    private ServerSocketChannel mServer;
+    private volatile SocketChannel mChannel = null;
+    private final int mPort;
+
+    public TCPTransport() throws IOException {
+        mServer = ServerSocketChannel.open();
+        mServer.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+        mPort = mServer.socket().getLocalPort();
+    }
+
+    @Override
+    public String getInput() {
+        return "tcp://127.0.0.1:" + mPort;
+    }
+
+    @Override
+    public void open() throws IOException {
+        mServer.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            mServer.register(selector, SelectionKey.OP_ACCEPT);
+            if (selector.select(CONNECT_TIMEOUT) == 0) {
+                throw new SocketTimeoutException("No connection from the encoder");
+            }
+        }
+        SocketChannel channel = mServer.accept();
+        channel.configureBlocking(true);
+        // Frames are big, don't wait for acks of the small trailing segments
+        channel.socket().setTcpNoDelay(true);
+        mServer.close();
+        mServer = null;
+        mChannel = channel;
+    }
+
+    @Override
+    public void attach(Process process) {
+    }
+
+    @Override
+    public WritableByteChannel getChannel() {
+        return mChannel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel != null) {
+            mChannel.close();
+        }
+        if (mServer != null) {
+            mServer.close();
+            mServer = null;
+        }
+    }
+}
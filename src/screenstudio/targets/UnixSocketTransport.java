@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 patrick
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package screenstudio.targets;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import screenstudio.sources.Screen;
+
+/**
+ * ffmpeg connects to a Unix domain socket, avoiding the TCP loopback stack.
+ *
+ * Unix domain sockets are only available with Java 16 and later, the API is
+ * looked up by reflection so that we still build and run on Java 8.
+ *
+ * @author patrick
+ */
+public class UnixSocketTransport implements FrameTransport {
+
+    private final File mPath;
+    private ServerSocketChannel mServer;
+    private volatile SocketChannel mChannel = null;
+
+    public UnixSocketTransport() throws IOException {
+        if (!isSupported()) {
+            throw new IOException("Unix domain sockets are not supported");
+        }
+        mPath = File.createTempFile("screenstudio", ".sock");
+        // Binding creates the file...
+        mPath.delete();
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            mServer = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class).invoke(null, unix);
+            mServer.bind(getAddress(mPath), 1);
+        } catch (ReflectiveOperationException | IllegalArgumentException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * @return true if this JVM and OS can use Unix domain sockets
+     */
+    public static boolean isSupported() {
+        if (Screen.isWindows()) {
+            return false;
+        }
+        try {
+            Class.forName("java.net.UnixDomainSocketAddress");
+            return true;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @param path
+     * @return an UnixDomainSocketAddress for the path
+     * @throws ReflectiveOperationException
+     */
+    static SocketAddress getAddress(File path) throws ReflectiveOperationException {
+        return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class).invoke(null, path.getAbsolutePath());
+    }
+
+    @Override
+    public String getInput() {
+        return "unix:" + mPath.getAbsolutePath();
+    }
+
+    @Override
+    public void open() throws IOException {
+        mServer.configureBlocking(false);
+        try (Selector selector = Selector.open()) {
+            mServer.register(selector, SelectionKey.OP_ACCEPT);
+            if (selector.select(CONNECT_TIMEOUT) == 0) {
+                throw new SocketTimeoutException("No connection from the encoder");
+            }
+        }
+        SocketChannel channel = mServer.accept();
+        channel.configureBlocking(true);
+        mServer.close();
+        mServer = null;
+        mChannel = channel;
+    }
+
+    @Override
+    public void attach(Process process) {
+    }
+
+    @Override
+    public WritableByteChannel getChannel() {
+        return mChannel;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel != null) {
+            mChannel.close();
+        }
+        if (mServer != null) {
+            mServer.close();
+            mServer = null;
+        }
+        mPath.delete();
+    }
+}